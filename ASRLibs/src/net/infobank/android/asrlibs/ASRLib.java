@@ -1,15 +1,15 @@
 package net.infobank.android.asrlibs;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.List;
 
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.speech.RecognitionListener;
 import android.speech.RecognizerIntent;
 import android.speech.SpeechRecognizer;
@@ -18,36 +18,74 @@ import android.util.Log;
 public abstract class ASRLib extends Activity implements RecognitionListener{
 	
 	private static final String LOG_TAG = "ASRLib";
-	private static final boolean DEBUG = true;
 	
-	private static SpeechRecognizer mASR;
+	private RecognizerEngine mEngine;	//Shared by all the activities, null until the recognizer is created and after it is released
+	private RecognitionSession mSession;	//Last recognition started by this activity, null if there is none
+	private AudioCapture mAudioCapture;	//Receives the audio of the recognizer, null if it is discarded
+	private VoiceActivityDetector mVad;	//Stops listening when the user finishes speaking, null to wait for the recognizer
+	private AudioLevelMeter mVadLevels;	//Feeds the detector with the levels of the captured audio, null if there is no detector
+	private volatile boolean mAudioLevels = false;	//True once the captured audio drives the detector in the current recognition
+	
+	private final Runnable mVoiceEnd = new Runnable() {
+		@Override
+		public void run() {
+			onVoiceEnd();
+		}
+	};
 	Context ctx;
 	
 	/**
-	 * Creates the single SpeechRecognizer instance and assigns a listener
-	 * @see CustomRecognitionListener.java
+	 * Obtains the process-wide recognizer (see {@link RecognizerEngine}), which is only created the first time,
+	 * and receives its results in this activity. It is released when the activity is destroyed.
 	 * @param ctx context of the interaction
 	 * */
 	public void createRecognizer(Context ctx) {
 		this.ctx = ctx;
-		PackageManager packManager = ctx.getPackageManager();
-		
-		// 음성 지원 여부 확인
-		List<ResolveInfo> intActivities = packManager.queryIntentActivities(new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH), 0);
-		if(intActivities.size() != 0) {
-			mASR = SpeechRecognizer.createSpeechRecognizer(ctx);
-			mASR.setRecognitionListener(this);
-		} else {
-			mASR = null;
+		if(mEngine == null)
+			mEngine = RecognizerEngine.acquire(ctx);
+	}
+	
+	/**
+	 * Cancels the recognition of this activity and releases the recognizer, so that it can be destroyed when no other activity uses it
+	 */
+	public void releaseRecognizer() {
+		if(mAudioCapture != null)
+			mAudioCapture.stop();
+		if(mSession != null) {
+			mSession.cancel(true);
+			mSession = null;
 		}
+		if(mEngine != null) {
+			mEngine.release();
+			mEngine = null;
+		}
+	}
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		releaseRecognizer();
+	}
+	
+	/**
+	 * Starts speech recognition, without time limit
+	 * @see #listen(String, int, long)
+	 */
+	public RecognitionSession listen(String languageModel, int maxResults) throws Exception {
+		return listen(languageModel, maxResults, 0);
 	}
 	
 	/**
-	 * Starts speech recognition
+	 * Starts speech recognition. The events are received by this activity, which processes the results with
+	 * {@link #processAsrResults(ArrayList, float[])}, and the final result is also provided by the returned session,
+	 * so that further work can be chained to it (see {@link RecognitionSession#addCallback(RecognitionSession.Callback, java.util.concurrent.Executor)}).
 	 * @param languageModel Type of language model used 
 	 * @param maxResults Maximum number of recognition results
+	 * @param timeoutMs Maximum time to wait for the result, 0 for no limit. When it expires, processAsrError is invoked with
+	 * {@link SpeechRecognizer#ERROR_SPEECH_TIMEOUT}
+	 * @return the session of this recognition
 	 */
-	public void listen(String languageModel, int maxResults) throws Exception {
+	public RecognitionSession listen(String languageModel, int maxResults, long timeoutMs) throws Exception {
 		if(languageModel.equals(RecognizerIntent.LANGUAGE_MODEL_FREE_FORM) 
 				|| languageModel.equals(RecognizerIntent.LANGUAGE_MODEL_WEB_SEARCH) 
 				&& (maxResults >= 0)) {
@@ -63,19 +101,129 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 			// 결과 데이터의 최대 양을 명시. 음성 인식 정확도 순서대로 목록화
 			intent.putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, maxResults);
 			
+			// 부분 인식 결과 요청 (see processAsrPartialResults)
+			intent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true);
+			
 			// 음성 인식 시작
-			mASR.startListening(intent);
+			if(mEngine == null || !mEngine.isAvailable())
+				throw new Exception("Speech recognition is not available");
+			mAudioLevels = false;
+			if(mVad != null)
+				mVad.reset(SystemClock.elapsedRealtime());
+			if(mVadLevels != null)
+				mVadLevels.reset();
+			if(mAudioCapture != null)
+				mAudioCapture.start();
+			mSession = mEngine.listen(intent, this, timeoutMs);
+			return mSession;
 		} else {
-			if(DEBUG) Log.e(LOG_TAG, "[ASRLib]Invalid params to listen method");
+			if(Trace.ENABLED) Trace.event(Trace.ASR_INVALID_PARAMS);
+			Log.e(LOG_TAG, "[ASRLib]Invalid params to listen method");
 			throw new Exception("Invalid params to listen method"); //If the input parameters are not valid, it throws an exception
 		}
 	}
 	
+	/**
+	 * Sets where the audio provided by the recognizer is captured, so that it can be processed by its consumers
+	 * (see {@link AudioCapture}). The capture is started when a recognition starts, and stopped when it finishes.
+	 * @param audioCapture the capture, or null to discard the audio
+	 */
+	public void setAudioCapture(AudioCapture audioCapture) {
+		if(mAudioCapture != null) {
+			mAudioCapture.stop();
+			if(mVadLevels != null)
+				mAudioCapture.removeConsumer(mVadLevels);
+		}
+		mAudioCapture = audioCapture;
+		if(mAudioCapture != null && mVadLevels != null)
+			mAudioCapture.addConsumer(mVadLevels);
+	}
+	
+	/**
+	 * @return the capture of the audio provided by the recognizer, or null if it is discarded
+	 */
+	public AudioCapture getAudioCapture() {
+		return mAudioCapture;
+	}
+	
+	/**
+	 * Sets the detector used to stop listening as soon as the user finishes speaking, instead of waiting for the
+	 * end-of-speech timeout of the recognizer. The latency saved in each recognition is given by
+	 * {@link RecognitionSession#getLatencySavedMs()}.
+	 *
+	 * If the recognizer provides the audio, the detector is driven by its levels (see {@link AudioLevelMeter}), in the thread
+	 * of the capture, which is created if there was none. Otherwise it is driven by the levels reported by the recognizer.
+	 * @param vad the detector, or null to let the recognizer detect the end of speech
+	 */
+	public void setVoiceActivityDetector(final VoiceActivityDetector vad) {
+		if(mAudioCapture != null && mVadLevels != null)
+			mAudioCapture.removeConsumer(mVadLevels);
+		mVad = vad;
+		mVadLevels = null;
+		if(vad == null)
+			return;
+		
+		mVadLevels = new AudioLevelMeter(new AudioLevelMeter.Listener() {
+			@Override
+			public void onLevel(float levelDb) {
+				onAudioLevel(vad, levelDb);
+			}
+		});
+		if(mAudioCapture == null)
+			mAudioCapture = new AudioCapture();
+		mAudioCapture.addConsumer(mVadLevels);
+	}
+	
+	/**
+	 * Ignores the audio in the voice activity detector until {@link #resumeVoiceActivityDetection()}, e.g. while a prompt
+	 * is played before listening, so that the prompt is not taken as the speech of the user. It goes on across recognitions.
+	 */
+	public void holdVoiceActivityDetection() {
+		if(mVad != null)
+			mVad.hold();
+	}
+	
+	/**
+	 * Processes the audio in the voice activity detector again, after {@link #holdVoiceActivityDetection()}
+	 */
+	public void resumeVoiceActivityDetection() {
+		if(mVad != null)
+			mVad.resume(SystemClock.elapsedRealtime());
+	}
+	
+	/**
+	 * Feeds the detector with a level of the captured audio, in the thread of the capture
+	 */
+	private void onAudioLevel(VoiceActivityDetector vad, float levelDb) {
+		long time = SystemClock.elapsedRealtime();
+		if(!mAudioLevels) {
+			//The levels of the audio and the ones of the recognizer have different scales, so the detector starts again with the audio
+			mAudioLevels = true;
+			vad.recalibrate(time);
+		}
+		if(vad.onRms(levelDb, time))
+			runOnUiThread(mVoiceEnd);
+	}
+	
+	/**
+	 * Stops listening when the detector finds the end of speech, in the main thread
+	 */
+	private void onVoiceEnd() {
+		//The end may have been found in the audio of a recognition that is already finished
+		if(mVad == null || !mVad.hasDetectedEnd())
+			return;
+		if(Trace.ENABLED) Trace.event(Trace.VAD_END_DETECTED, (int) mVad.getLatencySavedMs());
+		if(mSession != null)
+			mSession.setLatencySavedMs(mVad.getLatencySavedMs());
+		stopListening();
+	}
+	
 	/**
 	 * Stops listening to the user
 	 */
 	public void stopListening() {
-		mASR.stopListening();
+		if(mEngine != null && mSession != null)
+			mEngine.stopListening(mSession);
 	}
 	
 	/********************************************************************************************************
@@ -90,7 +238,9 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */
 	@Override
 	public void onResults(Bundle results) {
-		if(DEBUG) Log.d(LOG_TAG, "[ASRLib]ASR results provided");
+		if(Trace.ENABLED) Trace.event(Trace.ASR_RESULTS);
+		if(mAudioCapture != null)
+			mAudioCapture.stop();
 		
 		if(results != null) {
 			if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
@@ -113,7 +263,7 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */
 	@Override
 	public void onReadyForSpeech(Bundle params) {
-		if(DEBUG) Log.d(LOG_TAG, "[ASRLib]onReadyForSpeech()...");
+		if(Trace.ENABLED) Trace.event(Trace.ASR_READY_FOR_SPEECH);
 		
 		processAsrReadyForSpeech();
 	}
@@ -124,7 +274,9 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */
 	@Override
 	public void onError(int errorCode) {
-		if(DEBUG) Log.d(LOG_TAG, "[ASRLib]onError() : errorCode = " + errorCode);
+		if(Trace.ENABLED) Trace.event(Trace.ASR_ERROR, errorCode);
+		if(mAudioCapture != null)
+			mAudioCapture.stop();
 		
 		processAsrError(errorCode);
 	}
@@ -135,7 +287,7 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */
 	@Override
 	public void onBeginningOfSpeech() {
-		if(DEBUG) Log.d(LOG_TAG, "[ASRLib]onBeginningOfSpeech()...");
+		if(Trace.ENABLED) Trace.event(Trace.ASR_BEGINNING_OF_SPEECH);
 		
 	}
 	
@@ -145,8 +297,12 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */
 	@Override
 	public void onRmsChanged(float rmsdB) {
-		if(DEBUG) Log.d(LOG_TAG, "[ASRLib]onRmsChanged()...");
+		//Invoked many times per second, so it is traced instead of logged
+		if(Trace.ENABLED) Trace.event(Trace.ASR_RMS_CHANGED, rmsdB);
 		
+		//Only if the recognizer does not provide the audio, whose levels are used instead
+		if(mVad != null && !mAudioLevels && mVad.onRms(rmsdB, SystemClock.elapsedRealtime()))
+			onVoiceEnd();
 	}
 	
 	/*
@@ -155,8 +311,11 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */
 	@Override
 	public void onBufferReceived(byte[] buffer) {
-		if(DEBUG) Log.d(LOG_TAG, "[ASRLib]onBufferReceived()...");
+		if(Trace.ENABLED) Trace.event(Trace.ASR_BUFFER_RECEIVED, buffer.length);
 		
+		//It is only copied here, the consumers process it in the thread of the capture
+		if(mAudioCapture != null)
+			mAudioCapture.write(buffer);
 	}
 
 	/*
@@ -165,8 +324,12 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */
 	@Override
 	public void onEndOfSpeech() {
-		if(DEBUG) Log.d(LOG_TAG, "[ASRLib]onEndOfSpeech()...");
+		if(Trace.ENABLED) Trace.event(Trace.ASR_END_OF_SPEECH);
 		
+		if(mVad != null && mVad.isObserved()) {
+			mVad.onEndOfSpeech(SystemClock.elapsedRealtime());
+			if(Trace.ENABLED) Trace.event(Trace.VAD_PLATFORM_DELAY, (int) mVad.getPlatformDelayMs());
+		}
 	}
 	
 	/*
@@ -175,8 +338,13 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */	
 	@Override
 	public void onPartialResults(Bundle partialResults) {
-		if(DEBUG) Log.d(LOG_TAG, "[ASRLib]onPartialResults()...");
+		if(Trace.ENABLED) Trace.event(Trace.ASR_PARTIAL_RESULTS);
 		
+		if(partialResults != null) {
+			ArrayList<String> partialNBestList = partialResults.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+			if(partialNBestList != null && partialNBestList.size() > 0)
+				processAsrPartialResults(partialNBestList);
+		}
 	}
 	
 	/*
@@ -185,10 +353,20 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */
 	@Override
 	public void onEvent(int eventType, Bundle params) {
-		if(DEBUG) Log.d(LOG_TAG, "[ASRLib]onEvent()...");
+		if(Trace.ENABLED) Trace.event(Trace.ASR_EVENT, eventType);
 		
 	}
 
+	/**
+	 * Adds the traced events (see {@link Trace}) to the dump of the activity, e.g. <code>adb shell dumpsys activity &lt;component&gt;</code>
+	 */
+	@Override
+	public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+		super.dump(prefix, fd, writer, args);
+		writer.println(prefix + "Trace:");
+		Trace.dump(writer);
+	}
+	
 	/**
 	 * Abstract method to process the recognition results 
 	 * @param nBestList	List of the N recognition results
@@ -196,6 +374,15 @@ public abstract class ASRLib extends Activity implements RecognitionListener{
 	 */
 	public abstract void processAsrResults(ArrayList<String>nBestList, float[] nBestConfidences);
 	
+	/**
+	 * Method to process the partial recognition results, which may arrive while the user is still speaking.
+	 * They have no confidences, and the final results are always provided later with {@link #processAsrResults(ArrayList, float[])}.
+	 * Not all recognizers provide them. By default they are ignored.
+	 * @param partialNBestList List of the partial recognition results
+	 */
+	public void processAsrPartialResults(ArrayList<String> partialNBestList) {
+	}
+	
 	/**
 	 * Abstract method to process the situation in which the ASR engine is ready to listen
 	 */
@@ -0,0 +1,143 @@
+package net.infobank.android.asrlibs;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/**
+ * Captures the audio that the recognizer provides with {@link android.speech.RecognitionListener#onBufferReceived(byte[])}
+ * and hands it to the consumers in a thread of its own, so that they do not delay the events of the recognizer.
+ *
+ * The buffers are copied into an {@link AudioRingBuffer}, without locks nor allocations. The thread of the capture reads
+ * them and invokes each {@link Consumer} in order, e.g. a level meter, a dump to a file or a feature extractor.
+ * If the consumers are slower than the recognizer, the buffers that do not fit are dropped and counted (see {@link #getOverruns()}).
+ *
+ * Not all the recognizers provide the audio, so the consumers may receive nothing.
+ */
+public class AudioCapture {
+
+	private static final String LOG_TAG = "AudioCapture";
+
+	public static final int DEFAULT_CAPACITY = 64 * 1024;		//About 2 seconds of 16 kHz, 16-bit mono audio
+	private static final long IDLE_WAIT_NS = TimeUnit.MILLISECONDS.toNanos(20);	//Maximum time the thread sleeps when there is no audio
+
+	/**
+	 * Processes the captured audio, in the thread of the capture
+	 */
+	public interface Consumer {
+		/**
+		 * @param audio array with the audio, it must not be modified nor kept after returning
+		 * @param offset index of the first byte
+		 * @param length number of bytes. A buffer of the recognizer may be received in two parts
+		 */
+		void onAudio(byte[] audio, int offset, int length);
+	}
+
+	private final AudioRingBuffer ring;
+	private final CopyOnWriteArrayList<Consumer> consumers = new CopyOnWriteArrayList<Consumer>();
+	private volatile Thread thread;		//Thread of the consumers, null when it is not running
+	private volatile boolean running = false;	//False when the capture is stopped, the thread ends when it has processed all the audio
+
+	public AudioCapture() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity bytes of audio that can wait for the consumers, see {@link AudioRingBuffer#AudioRingBuffer(int)}
+	 */
+	public AudioCapture(int capacity) {
+		ring = new AudioRingBuffer(capacity);
+	}
+
+	public void addConsumer(Consumer consumer) {
+		consumers.add(consumer);
+	}
+
+	public void removeConsumer(Consumer consumer) {
+		consumers.remove(consumer);
+	}
+
+	/**
+	 * @return number of buffers of the recognizer dropped because the consumers did not keep up
+	 */
+	public long getOverruns() {
+		return ring.getOverruns();
+	}
+
+	/**
+	 * Starts the thread of the consumers. If it was stopped but it is still processing the audio, the same thread goes on.
+	 */
+	public synchronized void start() {
+		running = true;
+		if(thread != null)
+			return;
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				consume();
+			}
+		}, LOG_TAG);
+		thread.start();
+	}
+
+	/**
+	 * Stops the thread of the consumers, after they process the audio that was already captured
+	 */
+	public synchronized void stop() {
+		if(!running)
+			return;
+		running = false;
+		if(thread != null)
+			LockSupport.unpark(thread);
+
+		if(Trace.ENABLED) Trace.event(Trace.AUDIO_CAPTURE_STOPPED, (int) ring.getOverruns());
+	}
+
+	/**
+	 * Captures a buffer of the recognizer. It must always be invoked from the same thread (the main thread for the events of the
+	 * recognizer), and it does not block: if the buffer does not fit, it is dropped.
+	 */
+	public void write(byte[] buffer) {
+		ring.write(buffer);
+		Thread consumer = thread;
+		if(consumer != null)
+			LockSupport.unpark(consumer);
+	}
+
+	private void consume() {
+		while(true) {
+			int length = ring.peek();
+			if(length == 0) {
+				if(!running && finish())
+					return;
+				LockSupport.parkNanos(this, IDLE_WAIT_NS);
+				continue;
+			}
+
+			byte[] audio = ring.getData();
+			int offset = ring.getReadIndex();
+			for(Consumer consumer : consumers) {
+				try {
+					consumer.onAudio(audio, offset, length);
+				} catch (RuntimeException e) {
+					Log.e(LOG_TAG, "Error in an audio consumer", e);
+				}
+			}
+			ring.release(length);
+		}
+	}
+
+	/**
+	 * Ends the thread, unless the capture was started again meanwhile
+	 * @return true if the thread has to end
+	 */
+	private synchronized boolean finish() {
+		if(running)
+			return false;
+		thread = null;
+		return true;
+	}
+}
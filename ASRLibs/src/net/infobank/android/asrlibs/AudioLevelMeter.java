@@ -0,0 +1,64 @@
+package net.infobank.android.asrlibs;
+
+/**
+ * Measures the level of the audio captured from the recognizer, e.g. so that a {@link VoiceActivityDetector} is driven by
+ * the audio itself instead of the levels reported by the recognizer, whose scale depends on it. It is an
+ * {@link AudioCapture.Consumer}, so it runs in the thread of the capture.
+ *
+ * The audio of {@link android.speech.RecognitionListener#onBufferReceived(byte[])} is a single channel of big-endian
+ * 16-bit samples. The level of each block of audio is its RMS in dB, from 0 (silence) to about 90 (full scale).
+ */
+public class AudioLevelMeter implements AudioCapture.Consumer {
+
+	/**
+	 * Receives the levels, in the thread of the capture
+	 */
+	public interface Listener {
+		void onLevel(float levelDb);
+	}
+
+	private final Listener listener;
+	private int pendingByte = -1;	//First byte of a sample split between two blocks, -1 if there is none
+	private volatile boolean resetPending = false;
+
+	public AudioLevelMeter(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Forgets the audio of the previous recognition, so that a byte left from it is not joined with the next audio.
+	 * It may be invoked from any thread, it takes effect before the next block.
+	 */
+	public void reset() {
+		resetPending = true;
+	}
+
+	@Override
+	public void onAudio(byte[] audio, int offset, int length) {
+		if(resetPending) {
+			resetPending = false;
+			pendingByte = -1;
+		}
+		int end = offset + length;
+		int i = offset;
+		double sum = 0;
+		int samples = 0;
+
+		if(pendingByte >= 0 && i < end) {
+			double sample = (short) ((pendingByte << 8) | (audio[i++] & 0xFF));
+			sum += sample * sample;
+			samples++;
+			pendingByte = -1;
+		}
+		for(; i + 1 < end; i += 2) {
+			double sample = (short) ((audio[i] << 8) | (audio[i + 1] & 0xFF));
+			sum += sample * sample;
+			samples++;
+		}
+		if(i < end)
+			pendingByte = audio[i] & 0xFF;
+
+		if(samples > 0)
+			listener.onLevel((float) (20 * Math.log10(Math.max(1, Math.sqrt(sum / samples)))));
+	}
+}
@@ -0,0 +1,116 @@
+package net.infobank.android.asrlibs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring buffer of audio bytes for a single producer and a single consumer, e.g. the thread that receives
+ * the buffers of the recognizer and the thread of an {@link AudioCapture}.
+ *
+ * The producer and the consumer only share two positions, which only grow: the producer writes after the write position
+ * and then advances it, and the consumer reads before it and then advances the read position. Nothing is allocated
+ * when a buffer is written. If a buffer does not fit in the free space, it is dropped whole and counted as an overrun,
+ * so the consumer never receives part of a buffer.
+ */
+public class AudioRingBuffer {
+
+	private final byte[] data;
+	private final int mask;			//The capacity is a power of two, so a position is turned into an index with a mask
+	private final AtomicLong writePosition = new AtomicLong();
+	private final AtomicLong readPosition = new AtomicLong();
+	private volatile long overruns = 0;		//Only written by the producer
+	private volatile long droppedBytes = 0;
+
+	/**
+	 * @param capacity minimum number of bytes that can be stored, it is rounded up to a power of two
+	 */
+	public AudioRingBuffer(int capacity) {
+		if(capacity < 1 || capacity > (1 << 30))
+			throw new IllegalArgumentException("The capacity must be from 1 to 2^30 bytes");
+
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity)
+			size <<= 1;
+		data = new byte[size];
+		mask = size - 1;
+	}
+
+	public int getCapacity() {
+		return data.length;
+	}
+
+	/**
+	 * @return number of buffers dropped because they did not fit
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * @return number of bytes of the dropped buffers
+	 */
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/**
+	 * Copies a buffer into the ring. It must only be invoked by the producer.
+	 * @return false if there was not enough free space, then nothing is written and the overrun is counted
+	 */
+	public boolean write(byte[] buffer) {
+		long write = writePosition.get();
+		long free = data.length - (write - readPosition.get());
+		if(buffer.length > free) {
+			overruns++;
+			droppedBytes += buffer.length;
+			return false;
+		}
+
+		int index = (int) (write & mask);
+		int first = Math.min(buffer.length, data.length - index);
+		System.arraycopy(buffer, 0, data, index, first);
+		System.arraycopy(buffer, first, data, 0, buffer.length - first);
+		//The bytes are published with the new position
+		writePosition.lazySet(write + buffer.length);
+		return true;
+	}
+
+	/**
+	 * @return number of bytes that can be read
+	 */
+	public int available() {
+		return (int) (writePosition.get() - readPosition.get());
+	}
+
+	/**
+	 * Gives the consumer the next bytes that are stored contiguously, without copying them. They must be released with
+	 * {@link #release(int)} once they have been processed. It must only be invoked by the consumer.
+	 * @return the number of bytes, from {@link #getReadIndex()} in {@link #getData()}. It is 0 if the ring is empty
+	 */
+	public int peek() {
+		long read = readPosition.get();
+		int available = (int) (writePosition.get() - read);
+		int index = (int) (read & mask);
+		return Math.min(available, data.length - index);
+	}
+
+	/**
+	 * @return the array of the ring, only the bytes returned by {@link #peek()} can be read
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return the index in {@link #getData()} of the first byte returned by {@link #peek()}
+	 */
+	public int getReadIndex() {
+		return (int) (readPosition.get() & mask);
+	}
+
+	/**
+	 * Frees the first bytes, so that the producer can write over them. It must only be invoked by the consumer.
+	 */
+	public void release(int bytes) {
+		readPosition.lazySet(readPosition.get() + bytes);
+	}
+}
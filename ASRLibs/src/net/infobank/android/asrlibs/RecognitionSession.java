@@ -0,0 +1,335 @@
+package net.infobank.android.asrlibs;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.RecognitionListener;
+import android.speech.SpeechRecognizer;
+
+/**
+ * One recognition, started with {@link RecognizerEngine#listen(android.content.Intent, RecognitionListener, long)}.
+ *
+ * It is a {@link Future} of the final N-best list, so it can be used by any component, not only by subclasses of {@link ASRLib}.
+ * The work that depends on the result can be chained with {@link #addCallback(Callback, Executor)}, which does not block,
+ * e.g. to match the result in a background thread and then speak in the main one. {@link #get()} blocks, so it must
+ * not be invoked in the main thread, where the recognition events are delivered.
+ *
+ * The partial results and the rest of the events of the recognizer are forwarded, while the session is not finished,
+ * to the {@link RecognitionListener} given when it is started. The session fails with a {@link RecognitionError} if the
+ * recognizer reports an error, with a {@link TimeoutException} if there is no result in time, and with a
+ * {@link CancellationException} if it is cancelled or if another recognition is started before it finishes.
+ */
+public class RecognitionSession implements RecognitionListener, Future<RecognitionSession.Result> {
+
+	private final RecognizerEngine mEngine;
+	private final RecognitionListener mEvents;	//Receives the events of the recognizer, it may be null
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final CountDownLatch mDone = new CountDownLatch(1);
+
+	//Outcome of the session, written once. Callbacks waiting for it, run when it is set
+	private Result mResult;
+	private Throwable mFailure;
+	private boolean mFinished = false;
+	private final ArrayList<Runnable> mCallbacks = new ArrayList<Runnable>();
+	private volatile long mLatencySavedMs = -1;
+
+	private final Runnable mTimeout = new Runnable() {
+		@Override
+		public void run() {
+			if(finish(null, new TimeoutException("No recognition result in time"))) {
+				if(Trace.ENABLED) Trace.event(Trace.SESSION_TIMEOUT);
+				mEngine.cancel(RecognitionSession.this);
+				if(mEvents != null)
+					mEvents.onError(SpeechRecognizer.ERROR_SPEECH_TIMEOUT);
+			}
+		}
+	};
+
+	/**
+	 * @param timeoutMs maximum time to wait for the final result, 0 for no limit
+	 */
+	RecognitionSession(RecognizerEngine engine, RecognitionListener events, long timeoutMs) {
+		mEngine = engine;
+		mEvents = events;
+		if(timeoutMs > 0)
+			mHandler.postDelayed(mTimeout, timeoutMs);
+	}
+
+	/**
+	 * Receives the outcome of a session, see {@link RecognitionSession#addCallback(Callback, Executor)}
+	 */
+	public interface Callback {
+		void onResult(Result result);
+
+		/**
+		 * @param failure a {@link RecognitionError}, a {@link TimeoutException} or a {@link CancellationException}
+		 */
+		void onFailure(Throwable failure);
+	}
+
+	/**
+	 * Invokes the callback when the session finishes, or right away if it has already finished.
+	 * @param executor executes the callback, e.g. a background thread. If it is null, it is invoked in the main thread
+	 */
+	public void addCallback(final Callback callback, Executor executor) {
+		final Executor target = (executor != null) ? executor : new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				mHandler.post(command);
+			}
+		};
+		Runnable notification = new Runnable() {
+			@Override
+			public void run() {
+				target.execute(new Runnable() {
+					@Override
+					public void run() {
+						if(mResult != null)
+							callback.onResult(mResult);
+						else
+							callback.onFailure(mFailure);
+					}
+				});
+			}
+		};
+
+		synchronized(this) {
+			if(!mFinished) {
+				mCallbacks.add(notification);
+				return;
+			}
+		}
+		notification.run();
+	}
+
+	/**
+	 * Sets the outcome of the session, unless it has already finished
+	 * @return true if it was set
+	 */
+	private boolean finish(Result result, Throwable failure) {
+		ArrayList<Runnable> callbacks;
+		synchronized(this) {
+			if(mFinished)
+				return false;
+			mResult = result;
+			mFailure = failure;
+			mFinished = true;
+			callbacks = new ArrayList<Runnable>(mCallbacks);
+			mCallbacks.clear();
+		}
+		mHandler.removeCallbacks(mTimeout);
+		mDone.countDown();
+
+		for(Runnable callback : callbacks)
+			callback.run();
+		return true;
+	}
+
+	/**
+	 * @return the estimated time saved by stopping the recognition when the user finished speaking (see {@link VoiceActivityDetector}),
+	 * or -1 if the recognizer detected the end itself or if the saving is not known
+	 */
+	public long getLatencySavedMs() {
+		return mLatencySavedMs;
+	}
+
+	void setLatencySavedMs(long latencySavedMs) {
+		mLatencySavedMs = latencySavedMs;
+	}
+
+	/**
+	 * Invoked by the engine when another recognition is started before this one finishes
+	 */
+	void preempt() {
+		finish(null, new CancellationException("Another recognition was started"));
+	}
+
+	/**
+	 * Cancels the recognition. The events that arrive afterwards are not forwarded.
+	 * @param mayInterruptIfRunning not used, the recognition is always stopped
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if(!finish(null, new CancellationException("The recognition was cancelled")))
+			return false;
+		//The recognizer can only be used in the main thread
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mEngine.cancel(RecognitionSession.this);
+			}
+		});
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return mFailure instanceof CancellationException;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return mFinished;
+	}
+
+	@Override
+	public Result get() throws InterruptedException, ExecutionException {
+		mDone.await();
+		return getOutcome();
+	}
+
+	@Override
+	public Result get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if(!mDone.await(timeout, unit))
+			throw new TimeoutException();
+		return getOutcome();
+	}
+
+	private synchronized Result getOutcome() throws ExecutionException {
+		if(mFailure instanceof CancellationException)
+			throw (CancellationException) mFailure;
+		if(mFailure != null)
+			throw new ExecutionException(mFailure);
+		return mResult;
+	}
+
+	/********************************************************************************************************
+	 * Events of the recognizer, received in the main thread
+	 * ******************************************************************************************************
+	 */
+
+	@Override
+	public void onResults(Bundle results) {
+		if(isDone())
+			return;
+		if(mEvents != null)
+			mEvents.onResults(results);
+
+		if(results == null) {
+			finish(null, new RecognitionError(SpeechRecognizer.ERROR_NO_MATCH));
+			return;
+		}
+		ArrayList<String> nBestList = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+		//The confidence scores are supported only from API level 14
+		float[] nBestConfidences = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+				? results.getFloatArray(SpeechRecognizer.CONFIDENCE_SCORES) : null;
+		if(nBestList == null || nBestList.isEmpty())
+			finish(null, new RecognitionError(SpeechRecognizer.ERROR_NO_MATCH));
+		else
+			finish(new Result(nBestList, nBestConfidences), null);
+	}
+
+	@Override
+	public void onError(int error) {
+		if(isDone())
+			return;
+		if(mEvents != null)
+			mEvents.onError(error);
+		finish(null, new RecognitionError(error));
+	}
+
+	@Override
+	public void onReadyForSpeech(Bundle params) {
+		if(mEvents != null && !isDone())
+			mEvents.onReadyForSpeech(params);
+	}
+
+	@Override
+	public void onBeginningOfSpeech() {
+		if(mEvents != null && !isDone())
+			mEvents.onBeginningOfSpeech();
+	}
+
+	@Override
+	public void onRmsChanged(float rmsdB) {
+		if(mEvents != null && !isDone())
+			mEvents.onRmsChanged(rmsdB);
+	}
+
+	@Override
+	public void onBufferReceived(byte[] buffer) {
+		if(mEvents != null && !isDone())
+			mEvents.onBufferReceived(buffer);
+	}
+
+	@Override
+	public void onEndOfSpeech() {
+		if(mEvents != null && !isDone())
+			mEvents.onEndOfSpeech();
+	}
+
+	@Override
+	public void onPartialResults(Bundle partialResults) {
+		if(mEvents != null && !isDone())
+			mEvents.onPartialResults(partialResults);
+	}
+
+	@Override
+	public void onEvent(int eventType, Bundle params) {
+		if(mEvents != null && !isDone())
+			mEvents.onEvent(eventType, params);
+	}
+
+	/********************************************************************************************************
+	 * Auxiliary classes
+	 * ******************************************************************************************************
+	 */
+
+	/**
+	 * Final result of a recognition
+	 */
+	public static class Result {
+		private final ArrayList<String> nBestList;
+		private final float[] nBestConfidences;
+
+		Result(ArrayList<String> nBestList, float[] nBestConfidences) {
+			this.nBestList = nBestList;
+			this.nBestConfidences = nBestConfidences;
+		}
+
+		/**
+		 * @return the recognized texts, from most to least likely
+		 */
+		public ArrayList<String> getNBestList() {
+			return nBestList;
+		}
+
+		/**
+		 * @return the confidences of the texts, or null if the recognizer does not provide them
+		 */
+		public float[] getNBestConfidences() {
+			return nBestConfidences;
+		}
+	}
+
+	/**
+	 * Error reported by the recognizer
+	 */
+	public static class RecognitionError extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private final int errorCode;
+
+		RecognitionError(int errorCode) {
+			super("Recognition error " + errorCode);
+			this.errorCode = errorCode;
+		}
+
+		/**
+		 * @return a constant of the {@link SpeechRecognizer} class
+		 */
+		public int getErrorCode() {
+			return errorCode;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package net.infobank.android.asrlibs;
+
+import java.util.List;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.RecognitionListener;
+import android.speech.RecognizerIntent;
+import android.speech.SpeechRecognizer;
+
+/**
+ * Process-wide speech recognizer, shared by all the activities and services that listen to the user.
+ *
+ * The <code>SpeechRecognizer</code> is created once with the application context, and it is kept while someone uses it,
+ * so a new screen can start listening without checking again if recognition is available and without binding
+ * to the recognition service again. The users are counted: each one invokes {@link #acquire(Context)} when it is created
+ * and {@link #release()} when it is destroyed. When nobody uses it, it is destroyed after
+ * {@link #IDLE_TIMEOUT_MS}, so that moving from one screen to another does not destroy it.
+ *
+ * The recognizer is not warmed up in advance: <code>SpeechRecognizer</code> only binds to the recognition service when it
+ * starts listening, and there is no way to bind without opening the microphone. So the first recognition of the process
+ * still pays for the binding, and the engine only saves it in the following ones, in any screen.
+ *
+ * Each recognition is a {@link RecognitionSession}, started with {@link #listen(Intent, RecognitionListener, long)}.
+ * Only one session listens at a time: starting one cancels the previous one, if it has not finished.
+ * All the methods must be invoked in the main thread, as the ones of <code>SpeechRecognizer</code>.
+ */
+public class RecognizerEngine implements RecognitionListener {
+
+	private static final long IDLE_TIMEOUT_MS = 30000;	//Time the recognizer is kept after the last user releases it
+
+	private static RecognizerEngine singleton;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private SpeechRecognizer mASR;			//Null if recognition is not available, or after the engine is destroyed
+	private RecognitionListener mListener;	//Session that is listening, null if there is none
+	private int mUsers = 0;
+
+	private final Runnable mDestroyIfIdle = new Runnable() {
+		@Override
+		public void run() {
+			destroyIfIdle();
+		}
+	};
+
+	/**
+	 * Creates the recognizer, if recognition is available. It is private, use {@link #acquire(Context)}.
+	 * @param ctx application context, the engine lives as long as it is used
+	 */
+	private RecognizerEngine(Context ctx) {
+		// 음성 지원 여부 확인 (only once, not for every screen)
+		List<ResolveInfo> intActivities = ctx.getPackageManager().queryIntentActivities(new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH), 0);
+		if(intActivities.size() != 0) {
+			mASR = SpeechRecognizer.createSpeechRecognizer(ctx);
+			mASR.setRecognitionListener(this);
+		}
+
+		if(Trace.ENABLED) Trace.event(Trace.ENGINE_CREATED, (mASR != null) ? 1 : 0);
+	}
+
+	/**
+	 * Returns the engine, creating it if it did not exist or if it was destroyed, and counts one more user.
+	 * Each invocation must be followed by a {@link #release()} when the user does not need it anymore.
+	 * @param ctx context of the user, the engine keeps only the application context
+	 */
+	public static RecognizerEngine acquire(Context ctx) {
+		if(singleton == null) {
+			singleton = new RecognizerEngine(ctx.getApplicationContext());
+		}
+		singleton.mUsers++;
+		singleton.mHandler.removeCallbacks(singleton.mDestroyIfIdle);
+		return singleton;
+	}
+
+	/**
+	 * Counts one user less. Its sessions are not cancelled, the user has to cancel them if it does not want their results.
+	 * When there are no users left, the recognizer is destroyed after {@link #IDLE_TIMEOUT_MS}, unless it is acquired again.
+	 */
+	public void release() {
+		if(mUsers > 0 && --mUsers == 0)
+			mHandler.postDelayed(mDestroyIfIdle, IDLE_TIMEOUT_MS);
+	}
+
+	private void destroyIfIdle() {
+		if(mUsers > 0)
+			return;
+
+		if(mASR != null)
+			mASR.destroy();
+		mASR = null;
+		if(singleton == this)
+			singleton = null;
+
+		if(Trace.ENABLED) Trace.event(Trace.ENGINE_DESTROYED);
+	}
+
+	/**
+	 * @return true if the device has a speech recognizer
+	 */
+	public boolean isAvailable() {
+		return mASR != null;
+	}
+
+	/**
+	 * Starts speech recognition. If another session was listening, it is cancelled.
+	 * @param intent recognition parameters, see {@link SpeechRecognizer#startListening(Intent)}
+	 * @param events receives the partial results and the rest of the events of this recognition, it may be null
+	 * @param timeoutMs maximum time to wait for the final result, 0 for no limit
+	 * @return the session, which provides the final result
+	 * @throws IllegalStateException if recognition is not available
+	 */
+	public RecognitionSession listen(Intent intent, RecognitionListener events, long timeoutMs) {
+		if(mASR == null)
+			throw new IllegalStateException("Speech recognition is not available");
+
+		if(mListener != null) {
+			mASR.cancel();
+			if(mListener instanceof RecognitionSession)
+				((RecognitionSession) mListener).preempt();
+		}
+		RecognitionSession session = new RecognitionSession(this, events, timeoutMs);
+		mListener = session;
+		mASR.startListening(intent);
+		return session;
+	}
+
+	/**
+	 * Stops listening to the user, if the session is the one that is listening. The results will still be provided.
+	 */
+	public void stopListening(RecognitionSession session) {
+		if(mASR != null && mListener == session)
+			mASR.stopListening();
+	}
+
+	/**
+	 * Cancels the recognition, if the listener is the one that is listening. No more events are forwarded to it
+	 */
+	void cancel(RecognitionListener listener) {
+		if(mASR != null && mListener == listener) {
+			mASR.cancel();
+			mListener = null;
+		}
+	}
+
+	/********************************************************************************************************
+	 * The events of the recognizer are forwarded to the listener that is listening
+	 * ******************************************************************************************************
+	 */
+
+	@Override
+	public void onReadyForSpeech(Bundle params) {
+		if(mListener != null)
+			mListener.onReadyForSpeech(params);
+	}
+
+	@Override
+	public void onBeginningOfSpeech() {
+		if(mListener != null)
+			mListener.onBeginningOfSpeech();
+	}
+
+	@Override
+	public void onRmsChanged(float rmsdB) {
+		if(mListener != null)
+			mListener.onRmsChanged(rmsdB);
+	}
+
+	@Override
+	public void onBufferReceived(byte[] buffer) {
+		if(mListener != null)
+			mListener.onBufferReceived(buffer);
+	}
+
+	@Override
+	public void onEndOfSpeech() {
+		if(mListener != null)
+			mListener.onEndOfSpeech();
+	}
+
+	@Override
+	public void onError(int error) {
+		//The recognition finishes, so the listener is forgotten before it is notified, in case it starts another one
+		RecognitionListener listener = mListener;
+		mListener = null;
+		if(listener != null)
+			listener.onError(error);
+	}
+
+	@Override
+	public void onResults(Bundle results) {
+		RecognitionListener listener = mListener;
+		mListener = null;
+		if(listener != null)
+			listener.onResults(results);
+	}
+
+	@Override
+	public void onPartialResults(Bundle partialResults) {
+		if(mListener != null)
+			mListener.onPartialResults(partialResults);
+	}
+
+	@Override
+	public void onEvent(int eventType, Bundle params) {
+		if(mListener != null)
+			mListener.onEvent(eventType, params);
+	}
+}
@@ -0,0 +1,134 @@
+package net.infobank.android.asrlibs;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracing of events in the hot paths (e.g. every RMS level of the recognizer), instead of logging them.
+ *
+ * Each event is a fixed-size record (event id, timestamp in nanoseconds and an int or float argument) written into a
+ * ring that is allocated once, so tracing an event neither formats strings nor allocates. When the ring is full the
+ * oldest events are overwritten. The events can be dumped on demand with {@link #dump(PrintWriter)}, e.g. with
+ * <code>adb shell dumpsys activity</code> on an activity that extends {@link ASRLib}.
+ *
+ * The calls must be guarded by {@link #ENABLED}, which is a compile-time constant, true only in the debug builds
+ * of the library:
+ * <pre>if(Trace.ENABLED) Trace.event(Trace.ASR_RMS_CHANGED, rmsdB);</pre>
+ * When it is false, the compiler removes the calls and the ring is not allocated.
+ *
+ * The events of the library have ids below {@link #FIRST_APP_EVENT}. The apps can trace their own events from that id on,
+ * and give them a name for the dumps with {@link #nameEvent(int, String)}.
+ */
+public final class Trace {
+
+	public static final boolean ENABLED = BuildConfig.DEBUG;
+
+	private static final int CAPACITY = 4096;	//Events kept, a power of two
+	private static final int FLOAT_ARG = 0x80000000;	//Set in the stored id when the argument is a float
+
+	//Events of the library
+	public static final int ASR_READY_FOR_SPEECH = 1;
+	public static final int ASR_BEGINNING_OF_SPEECH = 2;
+	public static final int ASR_RMS_CHANGED = 3;		//Argument: level in dB
+	public static final int ASR_BUFFER_RECEIVED = 4;	//Argument: bytes
+	public static final int ASR_END_OF_SPEECH = 5;
+	public static final int ASR_PARTIAL_RESULTS = 6;
+	public static final int ASR_RESULTS = 7;
+	public static final int ASR_ERROR = 8;				//Argument: error code
+	public static final int ASR_EVENT = 9;				//Argument: event type
+	public static final int ASR_INVALID_PARAMS = 10;
+	public static final int VAD_END_DETECTED = 11;		//Argument: latency saved in ms, -1 if unknown
+	public static final int ENGINE_CREATED = 12;		//Argument: 1 if recognition is available
+	public static final int ENGINE_DESTROYED = 13;
+	public static final int SESSION_TIMEOUT = 14;
+	public static final int AUDIO_CAPTURE_STOPPED = 15;	//Argument: overruns
+	public static final int VAD_PLATFORM_DELAY = 16;	//Argument: average delay of the recognizer to detect the end, in ms
+	public static final int FIRST_APP_EVENT = 1000;
+
+	private static final String[] LIBRARY_EVENT_NAMES = {
+		null, "ASR_READY_FOR_SPEECH", "ASR_BEGINNING_OF_SPEECH", "ASR_RMS_CHANGED", "ASR_BUFFER_RECEIVED", "ASR_END_OF_SPEECH",
+		"ASR_PARTIAL_RESULTS", "ASR_RESULTS", "ASR_ERROR", "ASR_EVENT", "ASR_INVALID_PARAMS", "VAD_END_DETECTED",
+		"ENGINE_CREATED", "ENGINE_DESTROYED", "SESSION_TIMEOUT", "AUDIO_CAPTURE_STOPPED", "VAD_PLATFORM_DELAY"
+	};
+
+	//Two longs per event: the timestamp, and the id in the high half with the argument bits in the low one
+	private static final long[] RING = new long[ENABLED ? 2 * CAPACITY : 0];
+	private static final AtomicLong NEXT = new AtomicLong();	//Number of events traced, the next one goes to NEXT % CAPACITY
+	private static final HashMap<Integer, String> APP_EVENT_NAMES = new HashMap<Integer, String>();
+
+	private Trace() {
+	}
+
+	/**
+	 * Traces an event with an int argument (or without argument)
+	 */
+	public static void event(int id, int arg) {
+		record(id, arg);
+	}
+
+	public static void event(int id) {
+		record(id, 0);
+	}
+
+	/**
+	 * Traces an event with a float argument
+	 */
+	public static void event(int id, float arg) {
+		record(id | FLOAT_ARG, Float.floatToRawIntBits(arg));
+	}
+
+	private static void record(int storedId, int argBits) {
+		if(!ENABLED)
+			return;
+		//Each writer takes its own slot, without locks. A dump running at the same time may see a record half written
+		int slot = (int) (NEXT.getAndIncrement() & (CAPACITY - 1));
+		RING[2 * slot] = System.nanoTime();
+		RING[2 * slot + 1] = ((long) storedId << 32) | (argBits & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Gives a name to an event of an app, used in the dumps
+	 * @param id from {@link #FIRST_APP_EVENT} on
+	 */
+	public static void nameEvent(int id, String name) {
+		synchronized(APP_EVENT_NAMES) {
+			APP_EVENT_NAMES.put(id, name);
+		}
+	}
+
+	/**
+	 * Writes the events in the ring, from oldest to newest, one per line: time in milliseconds relative to the last event,
+	 * name of the event and argument
+	 */
+	public static void dump(PrintWriter writer) {
+		if(!ENABLED) {
+			writer.println("Tracing is disabled");
+			return;
+		}
+
+		long next = NEXT.get();
+		long first = Math.max(0, next - CAPACITY);
+		long lastTime = RING[2 * (int) ((next - 1) & (CAPACITY - 1))];
+		writer.println((next - first) + " events traced (" + first + " overwritten):");
+		for(long e=first; e < next; e++) {
+			int slot = (int) (e & (CAPACITY - 1));
+			long time = RING[2 * slot];
+			long event = RING[2 * slot + 1];
+			int storedId = (int) (event >>> 32);
+			int argBits = (int) event;
+
+			String arg = ((storedId & FLOAT_ARG) != 0) ? String.valueOf(Float.intBitsToFloat(argBits)) : String.valueOf(argBits);
+			writer.println(String.format("%10.3f %s %s", (time - lastTime) / 1e6, getName(storedId & ~FLOAT_ARG), arg));
+		}
+	}
+
+	private static String getName(int id) {
+		if(id > 0 && id < LIBRARY_EVENT_NAMES.length)
+			return LIBRARY_EVENT_NAMES[id];
+		synchronized(APP_EVENT_NAMES) {
+			String name = APP_EVENT_NAMES.get(id);
+			return (name != null) ? name : String.valueOf(id);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package net.infobank.android.asrlibs;
+
+/**
+ * Detects when the user has finished speaking from the levels of the captured audio (see {@link AudioLevelMeter}), or from
+ * the RMS levels of the recognizer (see {@link android.speech.RecognitionListener#onRmsChanged(float)}) if it does not
+ * provide the audio, so that the recognition can be stopped without waiting for the end-of-speech timeout of the recognizer.
+ *
+ * The level of the background noise (noise floor) is first calibrated with the average level of a short window, and then
+ * it is learned while the user is not speaking: it follows the lower levels at once, and the higher ones slowly. A level
+ * some dB above the floor is speech. Once there has been enough speech, the end is detected after a window of trailing
+ * silence. While the app is speaking to the user (e.g. a prompt before listening), the detection can be held, so that
+ * the prompt is neither taken as speech nor as noise.
+ *
+ * To report the latency saved, it needs how long the recognizer takes to detect the end itself, from the last speech to
+ * {@link android.speech.RecognitionListener#onEndOfSpeech()}. It is measured in observed recognitions, one in every
+ * few, in which the detector finds the end but does not report it, so that the recognizer detects it. Until the first
+ * one, an expected delay given by the caller is used, if any.
+ *
+ * The times are given by the caller, in milliseconds. The levels may come from another thread than the events of the
+ * recognizer, so the methods are synchronized.
+ */
+public class VoiceActivityDetector {
+
+	public static final long DEFAULT_TRAILING_SILENCE_MS = 500;
+	public static final int DEFAULT_OBSERVATION_INTERVAL = 10;	//One in this many recognitions is observed
+
+	private static final float SPEECH_MARGIN_DB = 4;		//Levels this much above the noise floor are speech
+	private static final float NOISE_ADAPTATION = 0.05f;	//Fraction of a higher level added to the floor, per level
+	private static final long CALIBRATION_MS = 300;			//Window averaged for the initial noise floor
+	private static final long MIN_SPEECH_MS = 200;			//Speech needed before the end can be detected, so that a click does not end it
+	private static final float PLATFORM_DELAY_ADAPTATION = 0.2f;	//Weight of each new measure in the average delay of the recognizer
+
+	private final long trailingSilenceMs;
+	private final long expectedPlatformDelayMs;
+	private final int observationInterval;
+	private int recognitions = 0;
+	private boolean held = false;
+
+	//State of the current recognition
+	private boolean observed;		//The end is not reported, to measure the delay of the recognizer
+	private float noiseFloor;
+	private boolean calibrated;
+	private long calibrationStart;	//Time of the first level of the calibration window, -1 if there has been none
+	private float calibrationSum;
+	private int calibrationLevels;
+	private long lastTime;
+	private long speechMs;			//Time with speech so far
+	private long lastSpeechTime;	//Time of the last level with speech, -1 if there has been no speech
+	private long endpointTime;		//Time the end was detected, -1 if it was not
+	private long latencySavedMs;
+
+	//Average time the recognizer takes to detect the end by itself, -1 until it is measured
+	private long platformDelayMs = -1;
+
+	public VoiceActivityDetector() {
+		this(DEFAULT_TRAILING_SILENCE_MS);
+	}
+
+	/**
+	 * @param trailingSilenceMs silence after the speech to consider that the user has finished
+	 */
+	public VoiceActivityDetector(long trailingSilenceMs) {
+		this(trailingSilenceMs, -1, DEFAULT_OBSERVATION_INTERVAL);
+	}
+
+	/**
+	 * @param trailingSilenceMs silence after the speech to consider that the user has finished
+	 * @param expectedPlatformDelayMs time the recognizer is expected to take to detect the end by itself (e.g. the silence
+	 * requested with {@link android.speech.RecognizerIntent#EXTRA_SPEECH_INPUT_COMPLETE_SILENCE_LENGTH_MILLIS}), used until
+	 * it is measured, -1 if it is unknown
+	 * @param observationInterval one in this many recognitions is observed to measure the delay of the recognizer, starting
+	 * with the first one. 0 not to observe any, then the expected delay is always used
+	 */
+	public VoiceActivityDetector(long trailingSilenceMs, long expectedPlatformDelayMs, int observationInterval) {
+		this.trailingSilenceMs = trailingSilenceMs;
+		this.expectedPlatformDelayMs = expectedPlatformDelayMs;
+		this.observationInterval = observationInterval;
+		endpointTime = -1;
+		latencySavedMs = -1;
+		recalibrate(0);
+	}
+
+	/**
+	 * Starts detecting the speech of a new recognition. The noise floor is calibrated again, as the environment may have
+	 * changed. If the detection is held, it goes on held.
+	 * @param time time the recognition starts
+	 */
+	public synchronized void reset(long time) {
+		observed = observationInterval > 0 && recognitions % observationInterval == 0;
+		recognitions++;
+		endpointTime = -1;
+		latencySavedMs = -1;
+		recalibrate(time);
+	}
+
+	/**
+	 * Forgets the levels of the current recognition and calibrates the noise floor again, e.g. because the levels
+	 * come from another source from now on
+	 * @param time time of the change
+	 */
+	public synchronized void recalibrate(long time) {
+		calibrated = false;
+		calibrationStart = -1;
+		calibrationSum = 0;
+		calibrationLevels = 0;
+		lastTime = time;
+		speechMs = 0;
+		lastSpeechTime = -1;
+	}
+
+	/**
+	 * Ignores the levels until {@link #resume(long)}, e.g. while a prompt is played, so that it is not taken as speech
+	 */
+	public synchronized void hold() {
+		held = true;
+	}
+
+	/**
+	 * Processes the levels again after {@link #hold()}. The noise floor is calibrated from then on
+	 * @param time time the detection is resumed
+	 */
+	public synchronized void resume(long time) {
+		if(!held)
+			return;
+		held = false;
+		recalibrate(time);
+	}
+
+	/**
+	 * Processes a level of the audio
+	 * @param rmsdB level in dB
+	 * @param time time of the level
+	 * @return true if the user has just finished speaking, then the recognition can be stopped. It is only returned once,
+	 * and never in the observed recognitions
+	 */
+	public synchronized boolean onRms(float rmsdB, long time) {
+		long elapsed = Math.max(0, time - lastTime);
+		lastTime = time;
+		if(held || endpointTime >= 0)
+			return false;
+
+		if(!calibrated) {
+			if(calibrationStart < 0)
+				calibrationStart = time;
+			calibrationSum += rmsdB;
+			calibrationLevels++;
+			if(time - calibrationStart < CALIBRATION_MS)
+				return false;
+			noiseFloor = calibrationSum / calibrationLevels;
+			calibrated = true;
+		}
+
+		if(rmsdB > noiseFloor + SPEECH_MARGIN_DB) {
+			speechMs += elapsed;
+			lastSpeechTime = time;
+			return false;
+		}
+
+		//Not speech: the floor goes down at once, and up slowly in case it is the beginning of the speech
+		if(rmsdB < noiseFloor)
+			noiseFloor = rmsdB;
+		else
+			noiseFloor += NOISE_ADAPTATION * (rmsdB - noiseFloor);
+
+		if(!observed && speechMs >= MIN_SPEECH_MS && time - lastSpeechTime >= trailingSilenceMs) {
+			endpointTime = time;
+			long platformDelay = getPlatformDelayMs();
+			if(platformDelay >= 0)
+				latencySavedMs = Math.max(0, platformDelay - (endpointTime - lastSpeechTime));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Processes the end of speech detected by the recognizer. In the observed recognitions, it measures how long the
+	 * recognizer took
+	 * @param time time of the end of speech
+	 */
+	public synchronized void onEndOfSpeech(long time) {
+		if(!observed || lastSpeechTime < 0)
+			return;
+
+		long delay = time - lastSpeechTime;
+		if(platformDelayMs < 0)
+			platformDelayMs = delay;
+		else
+			platformDelayMs += (long) (PLATFORM_DELAY_ADAPTATION * (delay - platformDelayMs));
+	}
+
+	/**
+	 * @return true if the current recognition is observed: the end is left to the recognizer, to measure its delay
+	 */
+	public synchronized boolean isObserved() {
+		return observed;
+	}
+
+	/**
+	 * @return true if the end of the speech of the current recognition was detected
+	 */
+	public synchronized boolean hasDetectedEnd() {
+		return endpointTime >= 0;
+	}
+
+	/**
+	 * @return the estimated time that the recognizer would have waited after the end was detected in the current recognition,
+	 * or -1 if it was not detected or if the delay of the recognizer is unknown
+	 */
+	public synchronized long getLatencySavedMs() {
+		return latencySavedMs;
+	}
+
+	/**
+	 * @return the average time from the last speech to the end of speech of the recognizer in the observed recognitions,
+	 * or the expected one if none has been observed yet, -1 if it is unknown
+	 */
+	public synchronized long getPlatformDelayMs() {
+		return (platformDelayMs >= 0) ? platformDelayMs : expectedPlatformDelayMs;
+	}
+}
@@ -1,10 +1,16 @@
 package net.infobank.android.ttslibs;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Locale;
 
 import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.speech.tts.TextToSpeech;
 import android.speech.tts.TextToSpeech.OnInitListener;
+import android.speech.tts.UtteranceProgressListener;
 import android.util.Log;
 
 /**
@@ -16,11 +22,15 @@ import android.util.Log;
 public class TTSLib implements OnInitListener {
 
 	private static final String LOG_TAG = "TTSLib";
-	private static final boolean DEBUG = true;
 	
 	private TextToSpeech mTTS;
 	private static TTSLib singleton;
 	
+	//Actions to run in the main thread when each utterance is completed, by utterance id. The TTS completes them in its own thread
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final HashMap<String, Runnable> mCompletions = new HashMap<String, Runnable>();
+	private int mNextUtteranceId = 0;
+	
 	/**
 	 * Creates the single <code>TTSLib</code> instance and initializes the text to speech
 	 * engine. It is private so that it cannot be invoked from outside the
@@ -111,7 +121,7 @@ public class TTSLib implements OnInitListener {
 	 */
 	public void speak(String text, String languageCode) throws Exception {
 		setLocale(languageCode);
-		mTTS.speak(text, TextToSpeech.QUEUE_ADD, null);
+		enqueue(text, null);
 	}
 	
 	/**
@@ -121,7 +131,51 @@ public class TTSLib implements OnInitListener {
 	 */
 	public void speak(String text) {
 		setLocale();
-		mTTS.speak(text, TextToSpeech.QUEUE_ADD, null);
+		enqueue(text, null);
+	}
+	
+	/**
+	 * Synthesizes a text using the default language of the device, and runs an action in the main thread when it has been
+	 * spoken (e.g. to start listening to the user after a prompt). The action is also run if the text cannot be spoken,
+	 * or if the synthesizer is stopped before.
+	 * 
+	 * @param text string to be synthesized
+	 * @param onCompleted action run when the text has been spoken
+	 */
+	public void speak(String text, Runnable onCompleted) {
+		setLocale();
+		String utteranceId;
+		synchronized(mCompletions) {
+			utteranceId = LOG_TAG + (mNextUtteranceId++);
+			mCompletions.put(utteranceId, onCompleted);
+		}
+		if(enqueue(text, utteranceId) == TextToSpeech.ERROR)
+			complete(utteranceId);
+	}
+	
+	/**
+	 * Adds the text to the queue of the synthesizer
+	 * 
+	 * @param utteranceId identifies the utterance when it is completed, it may be null
+	 * @return {@link TextToSpeech#SUCCESS} or {@link TextToSpeech#ERROR}
+	 */
+	private int enqueue(String text, String utteranceId) {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+			return mTTS.speak(text, TextToSpeech.QUEUE_ADD, null, utteranceId);
+		return enqueueWithParams(text, utteranceId);
+	}
+	
+	/**
+	 * Adds the text to the queue with the parameters of the API levels before 21, as the minimum API level is 8
+	 */
+	@SuppressWarnings("deprecation")
+	private int enqueueWithParams(String text, String utteranceId) {
+		HashMap<String, String> params = null;
+		if(utteranceId != null) {
+			params = new HashMap<String, String>();
+			params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceId);
+		}
+		return mTTS.speak(text, TextToSpeech.QUEUE_ADD, params);
 	}
 	
 	/**
@@ -133,6 +187,7 @@ public class TTSLib implements OnInitListener {
 		} else {
 			// nothing
 		}
+		completeAll();
 	}
 	
 	/**
@@ -148,6 +203,19 @@ public class TTSLib implements OnInitListener {
 		mTTS.stop();
 		mTTS.shutdown();
 		singleton = null;
+		completeAll();
+	}
+	
+	/**
+	 * Runs the actions of the utterances that have not been completed, as they will not be spoken anymore
+	 */
+	private void completeAll() {
+		ArrayList<String> utteranceIds;
+		synchronized(mCompletions) {
+			utteranceIds = new ArrayList<String>(mCompletions.keySet());
+		}
+		for(String utteranceId : utteranceIds)
+			complete(utteranceId);
 	}
 
 	/*
@@ -160,9 +228,65 @@ public class TTSLib implements OnInitListener {
 	public void onInit(int status) {
 		if(status != TextToSpeech.ERROR) {
 			setLocale();
+			listenToUtterances();
 		} else {
-			if(DEBUG) Log.e(LOG_TAG, "TTSLib()onInit : Error creating the TTS, status = " + status);
+			Log.e(LOG_TAG, "TTSLib()onInit : Error creating the TTS, status = " + status);
 		}
 		
 	}	
+
+	/**
+	 * Listens to the completion of the utterances, with the listener of the API level 15 if it is available,
+	 * as the one before is deprecated
+	 */
+	private void listenToUtterances() {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+			mTTS.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+				@Override
+				public void onStart(String utteranceId) {
+					// nothing
+				}
+				
+				@Override
+				public void onDone(String utteranceId) {
+					complete(utteranceId);
+				}
+				
+				//Deprecated from API level 21, but it is the only one before, and from 21 the new one invokes it by default
+				@SuppressWarnings("deprecation")
+				@Override
+				public void onError(String utteranceId) {
+					complete(utteranceId);
+				}
+			});
+		} else {
+			listenToUtterancesBeforeApi15();
+		}
+	}
+	
+	/**
+	 * Listens to the completion of the utterances with the listener of the API levels before 15, as the minimum API level is 8
+	 */
+	@SuppressWarnings("deprecation")
+	private void listenToUtterancesBeforeApi15() {
+		mTTS.setOnUtteranceCompletedListener(new TextToSpeech.OnUtteranceCompletedListener() {
+			@Override
+			public void onUtteranceCompleted(String utteranceId) {
+				complete(utteranceId);
+			}
+		});
+	}
+	
+	/**
+	 * Invoked in the thread of the TTS when an utterance has been spoken or has failed, and by this class when it will not
+	 * be spoken. Its action is run only once, in the main thread.
+	 */
+	private void complete(String utteranceId) {
+		Runnable onCompleted;
+		synchronized(mCompletions) {
+			onCompleted = mCompletions.remove(utteranceId);
+		}
+		if(onCompleted != null)
+			mHandler.post(onCompleted);
+	}
 }
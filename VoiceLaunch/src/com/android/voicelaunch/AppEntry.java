@@ -0,0 +1,66 @@
+package com.android.voicelaunch;
+
+/**
+ * Represents an app installed on the device, as stored in the {@link AppIndex}.
+ * The label is normalized, phonetically encoded and decomposed into Hangul jamo once when the entry is created,
+ * so that it does not have to be processed again for every recognition result.
+ */
+class AppEntry {
+	private final String name;				//User-friendly name
+	private final String normalizedName;	//User-friendly name after AppMatcher.normalize
+	private final String packageName;		//Full name
+	private final String phoneticCode;		//Soundex code of the normalized name, null if it cannot be encoded
+	private final char[] jamo;				//Normalized name decomposed into Hangul jamo
+	private final long packageStamp;		//Identifies the version of the package the label was loaded from, 0 if unknown
+
+	AppEntry(String name, String packageName) {
+		this(name, packageName, 0);
+	}
+
+	AppEntry(String name, String packageName, long packageStamp) {
+		this(name, AppMatcher.normalize(name), packageName, packageStamp);
+	}
+
+	private AppEntry(String name, String normalizedName, String packageName, long packageStamp) {
+		this(name, normalizedName, packageName, packageStamp, PhoneticCode.encode(normalizedName));
+	}
+
+	/**
+	 * Creates an entry with the label already processed, e.g. when it is read from an {@link AppIndexCache}
+	 */
+	AppEntry(String name, String normalizedName, String packageName, long packageStamp, String phoneticCode) {
+		this.name = name;
+		this.normalizedName = normalizedName;
+		this.packageName = packageName;
+		this.packageStamp = packageStamp;
+		this.phoneticCode = phoneticCode;
+		this.jamo = HangulJamo.decompose(normalizedName);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	String getNormalizedName() {
+		return normalizedName;
+	}
+
+	String getPackageName() {
+		return packageName;
+	}
+
+	long getPackageStamp() {
+		return packageStamp;
+	}
+
+	String getPhoneticCode() {
+		return phoneticCode;
+	}
+
+	/**
+	 * @return the decomposition of the normalized name, it must not be modified
+	 */
+	char[] getJamo() {
+		return jamo;
+	}
+}
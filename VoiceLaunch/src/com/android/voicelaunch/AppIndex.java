@@ -0,0 +1,443 @@
+package com.android.voicelaunch;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Process-wide index of the apps installed on the device.
+ *
+ * The index is built once with a full scan of the package manager, and it is then kept up to date
+ * incrementally with the package added/removed/changed broadcasts, so that a recognition result
+ * is compared against the labels in memory instead of querying the package manager every time.
+ *
+ * Readers obtain an immutable snapshot of the entries with {@link #getEntries()}; updates replace
+ * the snapshot instead of modifying it (copy on write). The normalized labels are also kept in a
+ * {@link BKTree} and in an {@link NGramIndex}, which are both updated with only the entry that changes.
+ * The launch intents of the apps are resolved
+ * the first time they are needed and cached until their package changes.
+ *
+ * A copy of the index is cached on disk (see {@link AppIndexCache}), so that when the process is started again
+ * only the labels of the packages that changed meanwhile have to be loaded from the package manager.
+ */
+class AppIndex {
+
+	private static final String LOG_TAG = "AppIndex";
+	private static final boolean DEBUG = BuildConfig.DEBUG;
+	private static final String CACHE_FILE_NAME = "app_index.cache";
+
+	private static AppIndex singleton;
+
+	private final Context ctx;
+	private final PackageManager packageManager;
+
+	private volatile AppEntry[] entries = new AppEntry[0];
+	private volatile int version = 0;	//Incremented every time the entries change
+	private final BKTree labelTree = new BKTree();
+	private volatile NGramIndex gramIndex = new NGramIndex(entries, NGramIndex.DEFAULT_GRAM_LENGTH);
+	private final HashMap<String, Integer> positionsByPackage = new HashMap<String, Integer>();	//Position of each package in the entries, guarded by this
+	private final HashMap<String, Intent> launchIntents = new HashMap<String, Intent>();	//By package name, null if it cannot be launched
+	private boolean built = false;
+	private final ExecutorService updateExecutor = Executors.newSingleThreadExecutor();	//Applies the package changes in order, off the main thread, and writes the cache
+	private final AtomicBoolean cacheWritePending = new AtomicBoolean(false);	//True while a write of the cache waits in updateExecutor
+
+	/**
+	 * Creates the index and registers the receiver for package changes. It is private, use {@link #getInstance(Context)}.
+	 * @param ctx application context, the index lives as long as the process
+	 */
+	private AppIndex(Context ctx) {
+		this.ctx = ctx;
+		this.packageManager = ctx.getPackageManager();
+		registerPackageReceiver();
+	}
+
+	/**
+	 * Returns the single <code>AppIndex</code> instance. If it did not exist, it creates it beforehand.
+	 * The index is not built until it is first needed, see {@link #buildInBackground()}.
+	 * @param ctx context of the interaction
+	 */
+	static synchronized AppIndex getInstance(Context ctx) {
+		if(singleton == null) {
+			singleton = new AppIndex(ctx.getApplicationContext());
+		}
+		return singleton;
+	}
+
+	/**
+	 * Starts building the index in a background thread, so that it is ready when the first recognition
+	 * result arrives. It does nothing if the index was already built. Then the launch intents of all the apps
+	 * are resolved in the same thread, so that launching an app does not have to wait for the package manager.
+	 */
+	void buildInBackground() {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ensureBuilt();
+				prefetchLaunchIntents(entries);
+			}
+		}, LOG_TAG).start();
+	}
+
+	/**
+	 * Returns the apps installed on the device. If the index has not been built yet, it is built
+	 * before returning (or, if it is being built in background, it waits until it finishes).
+	 * @return snapshot of the entries, it must not be modified
+	 */
+	AppEntry[] getEntries() {
+		ensureBuilt();
+		return entries;
+	}
+
+	/**
+	 * Returns the BK-tree with the normalized labels of the apps, to find the ones similar to a recognized name
+	 * without comparing it with all of them. If the index has not been built yet, it is built before returning.
+	 */
+	BKTree getLabelTree() {
+		ensureBuilt();
+		return labelTree;
+	}
+
+	/**
+	 * Returns the n-gram index of the normalized labels, to discard the apps that cannot be similar enough to a
+	 * recognized name. If the index has not been built yet, it is built before returning.
+	 */
+	NGramIndex getGramIndex() {
+		ensureBuilt();
+		return gramIndex;
+	}
+
+	/**
+	 * Returns the indexed apps of some packages, e.g. the ones launched most often, without going through all the entries.
+	 * If the index has not been built yet, it is built before returning.
+	 * @return the apps in the same order as their packages, leaving out the packages that are not installed anymore
+	 */
+	synchronized AppEntry[] getEntries(String[] packageNames) {
+		ensureBuilt();
+		ArrayList<AppEntry> found = new ArrayList<AppEntry>(packageNames.length);
+		for(String packageName : packageNames) {
+			Integer position = positionsByPackage.get(packageName);
+			if(position != null)
+				found.add(entries[position]);
+		}
+		return found.toArray(new AppEntry[found.size()]);
+	}
+
+	/**
+	 * @return a number that changes every time an app is added, removed or changed
+	 */
+	int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the intent used to launch the app. It is resolved with the package manager the first time
+	 * it is requested (or prefetched) and cached afterwards, until the package is changed or removed.
+	 * @return a copy of the launch intent, or null if the app cannot be launched
+	 */
+	Intent getLaunchIntent(AppEntry entry) {
+		Intent launchIntent = resolveLaunchIntent(entry);
+		return (launchIntent == null) ? null : new Intent(launchIntent);
+	}
+
+	/**
+	 * @return true if the app has a launch intent. It is resolved and cached like in {@link #getLaunchIntent(AppEntry)}
+	 */
+	boolean isLaunchable(AppEntry entry) {
+		return resolveLaunchIntent(entry) != null;
+	}
+
+	/**
+	 * Resolves and caches the launch intents of the apps that were not resolved yet
+	 */
+	void prefetchLaunchIntents(AppEntry[] apps) {
+		for(AppEntry entry : apps)
+			resolveLaunchIntent(entry);
+		if(DEBUG) Log.d(LOG_TAG, "[AppIndex]prefetchLaunchIntents(): " + apps.length + " apps");
+	}
+
+	/**
+	 * @return the cached launch intent, it must not be modified
+	 */
+	private Intent resolveLaunchIntent(AppEntry entry) {
+		String packageName = entry.getPackageName();
+		synchronized(launchIntents) {
+			if(launchIntents.containsKey(packageName))
+				return launchIntents.get(packageName);
+		}
+
+		//The package manager is queried without holding the lock, so a lookup is not blocked by the prefetch of other apps
+		int resolvedVersion = version;
+		Intent launchIntent = packageManager.getLaunchIntentForPackage(packageName);
+
+		synchronized(launchIntents) {
+			//If a package changed meanwhile, the intent may be outdated, so it is returned but not cached
+			if(resolvedVersion == version && !launchIntents.containsKey(packageName))
+				launchIntents.put(packageName, launchIntent);
+		}
+		return launchIntent;
+	}
+
+	private void forgetLaunchIntent(String packageName) {
+		synchronized(launchIntents) {
+			launchIntents.remove(packageName);
+		}
+	}
+
+	/**
+	 * Scans all the packages installed on the device, only the first time it is invoked. The labels of the packages
+	 * that did not change since the cache on disk was written are taken from it instead of the package manager.
+	 */
+	private synchronized void ensureBuilt() {
+		if(built)
+			return;
+
+		if(DEBUG) Log.d(LOG_TAG, "[AppIndex]build()...");
+
+		List<PackageInfo> apps = packageManager.getInstalledPackages(0);
+		AppIndexCache cache = readCache();
+
+		boolean unchanged = cache != null && cache.getFingerprint() == fingerprint(apps)
+				&& cache.getGramIndex().getGramLength() == NGramIndex.DEFAULT_GRAM_LENGTH;
+
+		NGramIndex newGramIndex;
+		if(unchanged) {
+			//No package changed, the whole index (including the n-gram postings) is taken from the cache
+			newGramIndex = cache.getGramIndex();
+			if(DEBUG) Log.d(LOG_TAG, "[AppIndex]build(): loaded from the cache");
+		} else {
+			HashMap<String, AppEntry> previousEntries = new HashMap<String, AppEntry>();
+			if(cache != null) {
+				for(AppEntry entry : cache.getEntries())
+					previousEntries.put(entry.getPackageName(), entry);
+			}
+
+			//Only the labels of the packages that are new or were updated are loaded
+			AppEntry[] newEntries = new AppEntry[apps.size()];
+			int reused = 0;
+			for(int i=0; i < apps.size(); i++) {
+				PackageInfo packInfo = apps.get(i);
+				AppEntry previous = previousEntries.get(packInfo.packageName);
+				if(previous != null && previous.getPackageStamp() == packageStamp(packInfo)) {
+					newEntries[i] = previous;
+					reused++;
+				} else {
+					newEntries[i] = createEntry(packInfo);
+				}
+			}
+			newGramIndex = new NGramIndex(newEntries, NGramIndex.DEFAULT_GRAM_LENGTH);
+			if(DEBUG) Log.d(LOG_TAG, "[AppIndex]build(): " + reused + " labels taken from the cache");
+		}
+
+		AppEntry[] newEntries = newGramIndex.getEntries();
+		for(AppEntry entry : newEntries)
+			labelTree.add(entry);
+
+		entries = newEntries;
+		gramIndex = newGramIndex;
+		for(int i=0; i < newEntries.length; i++)
+			positionsByPackage.put(newEntries[i].getPackageName(), i);
+		version++;
+		built = true;
+
+		if(!unchanged)
+			writeCacheInBackground();
+
+		if(DEBUG) Log.d(LOG_TAG, "[AppIndex]build(): " + newEntries.length + " apps indexed");
+	}
+
+	private AppEntry createEntry(PackageInfo packInfo) {
+		String name = packInfo.applicationInfo.loadLabel(packageManager).toString();
+		return new AppEntry(name, packInfo.packageName, packageStamp(packInfo));
+	}
+
+	/**
+	 * @return a number that changes when the package is updated: its version code and, from API level 9, the time of its last update
+	 */
+	private static long packageStamp(PackageInfo packInfo) {
+		long stamp = packInfo.versionCode;
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+			stamp = stamp * 31 + packInfo.lastUpdateTime;
+		return stamp;
+	}
+
+	/**
+	 * Same as {@link AppIndexCache#fingerprint(AppEntry[])}, but computed on the packages before their labels are loaded
+	 */
+	private static long fingerprint(List<PackageInfo> apps) {
+		long fingerprint = apps.size();
+		for(PackageInfo packInfo : apps)
+			fingerprint += AppIndexCache.packageHash(packInfo.packageName, packageStamp(packInfo));
+		return fingerprint;
+	}
+
+	private File getCacheFile() {
+		return new File(ctx.getFilesDir(), CACHE_FILE_NAME);
+	}
+
+	/**
+	 * @return the cache on disk, or null if there is none, it cannot be read or its labels are in another locale
+	 */
+	private AppIndexCache readCache() {
+		try {
+			AppIndexCache cache = AppIndexCache.read(getCacheFile());
+			if(!Locale.getDefault().toString().equals(cache.getLocale())) {
+				if(DEBUG) Log.d(LOG_TAG, "[AppIndex]readCache(): the locale changed, the labels are loaded again");
+				return null;
+			}
+			return cache;
+		} catch (FileNotFoundException e) {
+			return null; //First run
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "The index cache could not be read: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the current entries to the cache on disk, in {@link #updateExecutor}, so the writes do not overlap.
+	 * If a write is already waiting, nothing is done: it has not read the index yet, so it will write this change too.
+	 * A burst of package changes (e.g. a system update) is written once, after the changes queued before it.
+	 */
+	private void writeCacheInBackground() {
+		if(!cacheWritePending.compareAndSet(false, true))
+			return;
+
+		updateExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				cacheWritePending.set(false);
+				try {
+					//The current index is read here, so if there were several changes meanwhile the last one is written
+					AppIndexCache.write(getCacheFile(), Locale.getDefault().toString(), gramIndex);
+					if(DEBUG) Log.d(LOG_TAG, "[AppIndex]writeCacheInBackground(): cache written");
+				} catch (IOException e) {
+					Log.e(LOG_TAG, "The index cache could not be written: " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds the package to the index, or replaces its entry if it was already indexed.
+	 * It queries the package manager, so it must not be invoked in the main thread.
+	 */
+	private void addOrUpdatePackage(String packageName) {
+		PackageInfo packInfo;
+		try {
+			packInfo = packageManager.getPackageInfo(packageName, 0);
+		} catch (PackageManager.NameNotFoundException e) {
+			removePackage(packageName);
+			return;
+		}
+		//The label is loaded without holding the lock, so the readers waiting for the index are not blocked meanwhile
+		AppEntry entry = createEntry(packInfo);
+
+		synchronized(this) {
+			if(!built)
+				return; //The full scan will find it
+
+			Integer indexed = positionsByPackage.get(packageName);
+			int position;
+			if(indexed != null) {
+				position = indexed;
+				labelTree.remove(entries[position]);
+			} else {
+				position = entries.length;
+				positionsByPackage.put(packageName, position);
+			}
+			labelTree.add(entry);
+
+			gramIndex = gramIndex.withEntry(position, entry);
+			entries = gramIndex.getEntries();
+			version++;
+			forgetLaunchIntent(packageName); //After the version changes, so an intent being resolved meanwhile is not cached
+		}
+		writeCacheInBackground();
+
+		if(DEBUG) Log.d(LOG_TAG, "[AppIndex]addOrUpdatePackage(): " + packageName);
+	}
+
+	/**
+	 * Removes the package from the index
+	 */
+	private synchronized void removePackage(String packageName) {
+		if(!built)
+			return;
+
+		Integer position = positionsByPackage.remove(packageName);
+		if(position == null)
+			return;
+
+		labelTree.remove(entries[position]);
+		gramIndex = gramIndex.withoutEntry(position);
+		entries = gramIndex.getEntries();
+		//The last entry was moved to the position of the removed one
+		if(position < entries.length)
+			positionsByPackage.put(entries[position].getPackageName(), position);
+		version++;
+		forgetLaunchIntent(packageName);
+		writeCacheInBackground();
+		if(DEBUG) Log.d(LOG_TAG, "[AppIndex]removePackage(): " + packageName);
+	}
+
+	/**
+	 * Keeps the index up to date when packages are installed, uninstalled or changed.
+	 * It is registered on the application context, so it lives as long as the index. The broadcasts are received
+	 * in the main thread, so the changes are applied by {@link #updateExecutor}, which also waits for the full scan.
+	 */
+	private void registerPackageReceiver() {
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+		filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+		filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+		filter.addDataScheme("package");
+
+		ctx.registerReceiver(new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent intent) {
+				Uri data = intent.getData();
+				if(data == null)
+					return;
+
+				final String packageName = data.getSchemeSpecificPart();
+				String action = intent.getAction();
+
+				if(Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+					//When a package is updated, REMOVED is followed by ADDED, so the entry is kept meanwhile
+					if(!intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+						updateExecutor.execute(new Runnable() {
+							@Override
+							public void run() {
+								removePackage(packageName);
+							}
+						});
+					}
+				} else {
+					updateExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							addOrUpdatePackage(packageName);
+						}
+					});
+				}
+			}
+		}, filter);
+	}
+}
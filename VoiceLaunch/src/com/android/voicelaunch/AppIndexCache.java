@@ -0,0 +1,221 @@
+package com.android.voicelaunch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary cache of the {@link AppIndex} on disk, so that after the process is killed the index can be loaded
+ * again without loading the labels of all the apps from the package manager.
+ *
+ * The file has a header (magic number, format version, fingerprint of the package list and locale of the labels),
+ * the entries (package name, package stamp, label, normalized label and phonetic code) and the n-gram posting lists.
+ * Numbers are big endian, and strings are stored as their length followed by their UTF-16 chars (length -1 for null).
+ *
+ * It is a plain serialized cache: the whole file is read and decoded into {@link AppEntry} objects and posting lists
+ * on the heap, so what it saves at startup is the package manager queries, not the decoding. It is written to
+ * a temporary file that then replaces the previous one, so a process killed while writing never leaves a partial cache.
+ */
+class AppIndexCache {
+
+	private static final int MAGIC = 0x564C4958;	//"VLIX"
+	private static final int FORMAT_VERSION = 1;
+
+	private final long fingerprint;
+	private final String locale;
+	private final NGramIndex gramIndex;
+
+	private AppIndexCache(long fingerprint, String locale, NGramIndex gramIndex) {
+		this.fingerprint = fingerprint;
+		this.locale = locale;
+		this.gramIndex = gramIndex;
+	}
+
+	/**
+	 * @return the fingerprint of the packages the cache was written for, see {@link #fingerprint(AppEntry[])}
+	 */
+	long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @return the locale the labels were loaded in
+	 */
+	String getLocale() {
+		return locale;
+	}
+
+	AppEntry[] getEntries() {
+		return gramIndex.getEntries();
+	}
+
+	NGramIndex getGramIndex() {
+		return gramIndex;
+	}
+
+	/**
+	 * Hash of a package, combined by {@link #fingerprint(AppEntry[])}
+	 */
+	static long packageHash(String packageName, long packageStamp) {
+		//Finalizer of SplitMix64, so that similar packages do not cancel each other in the sum
+		long hash = packageName.hashCode() * 0x9E3779B97F4A7C15L + packageStamp;
+		hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+
+	/**
+	 * Fingerprint of a package list: the number of packages plus the sum of their hashes (see {@link #packageHash(String, long)}),
+	 * so it does not depend on their order. It changes when a package is installed, uninstalled or updated.
+	 */
+	static long fingerprint(AppEntry[] entries) {
+		long fingerprint = entries.length;
+		for(AppEntry entry : entries)
+			fingerprint += packageHash(entry.getPackageName(), entry.getPackageStamp());
+		return fingerprint;
+	}
+
+	/**
+	 * Reads a cache
+	 * @throws IOException if the file cannot be read, or if it is not a valid cache
+	 */
+	static AppIndexCache read(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			input.readFully(data);
+		} finally {
+			input.close();
+		}
+
+		try {
+			return read(ByteBuffer.wrap(data));
+		} catch (BufferUnderflowException e) {
+			throw new IOException("The cache is truncated");
+		} catch (IllegalArgumentException e) {
+			throw new IOException("The cache is corrupt: " + e.getMessage());
+		}
+	}
+
+	private static AppIndexCache read(ByteBuffer buffer) throws IOException {
+		if(buffer.getInt() != MAGIC)
+			throw new IOException("The file is not an index cache");
+		if(buffer.getInt() != FORMAT_VERSION)
+			throw new IOException("The cache has an unsupported format version");
+
+		long fingerprint = buffer.getLong();
+		String locale = readString(buffer);
+
+		AppEntry[] entries = new AppEntry[readLength(buffer, 1)];
+		for(int i=0; i < entries.length; i++) {
+			String packageName = readString(buffer);
+			long packageStamp = buffer.getLong();
+			String name = readString(buffer);
+			String normalizedName = readString(buffer);
+			String phoneticCode = readString(buffer);
+			if(packageName == null || name == null || normalizedName == null)
+				throw new IOException("The cache has an entry without name");
+			entries[i] = new AppEntry(name, normalizedName, packageName, packageStamp, phoneticCode);
+		}
+
+		int n = buffer.getInt();
+		int grams = readLength(buffer, 12);
+		HashMap<Long, int[]> postings = new HashMap<Long, int[]>(grams * 4 / 3 + 1);
+		for(int g=0; g < grams; g++) {
+			long gram = buffer.getLong();
+			int[] positions = new int[readLength(buffer, 4)];
+			buffer.asIntBuffer().get(positions);
+			buffer.position(buffer.position() + 4 * positions.length);
+			for(int position : positions) {
+				if(position < 0 || position >= entries.length)
+					throw new IOException("The cache has a posting out of range");
+			}
+			postings.put(gram, positions);
+		}
+
+		return new AppIndexCache(fingerprint, locale, new NGramIndex(entries, n, postings));
+	}
+
+	/**
+	 * Reads a length, checking that the buffer has enough bytes for it
+	 * @param bytesPerElement minimum size of each element
+	 */
+	private static int readLength(ByteBuffer buffer, int bytesPerElement) throws IOException {
+		int length = buffer.getInt();
+		if(length < 0 || (long) length * bytesPerElement > buffer.remaining())
+			throw new IOException("The cache has an invalid length");
+		return length;
+	}
+
+	private static String readString(ByteBuffer buffer) throws IOException {
+		if(buffer.getInt(buffer.position()) == -1) {
+			buffer.getInt();
+			return null;
+		}
+		char[] chars = new char[readLength(buffer, 2)];
+		buffer.asCharBuffer().get(chars);
+		buffer.position(buffer.position() + 2 * chars.length);
+		return new String(chars);
+	}
+
+	/**
+	 * Writes a cache of the entries of the n-gram index, replacing the previous one.
+	 * Writers are serialized, so the cache written last is the one that stays.
+	 * @param locale locale the labels were loaded in
+	 */
+	static synchronized void write(File file, String locale, NGramIndex gramIndex) throws IOException {
+		AppEntry[] entries = gramIndex.getEntries();
+		File temporary = new File(file.getPath() + ".tmp");
+
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeLong(fingerprint(entries));
+			writeString(output, locale);
+
+			output.writeInt(entries.length);
+			for(AppEntry entry : entries) {
+				writeString(output, entry.getPackageName());
+				output.writeLong(entry.getPackageStamp());
+				writeString(output, entry.getName());
+				writeString(output, entry.getNormalizedName());
+				writeString(output, entry.getPhoneticCode());
+			}
+
+			output.writeInt(gramIndex.getGramLength());
+			Map<Long, int[]> postings = gramIndex.getPostings();
+			output.writeInt(postings.size());
+			for(Map.Entry<Long, int[]> posting : postings.entrySet()) {
+				output.writeLong(posting.getKey());
+				output.writeInt(posting.getValue().length);
+				for(int position : posting.getValue())
+					output.writeInt(position);
+			}
+		} finally {
+			output.close();
+		}
+
+		if(!temporary.renameTo(file)) {
+			temporary.delete();
+			throw new IOException("The cache could not be replaced");
+		}
+	}
+
+	private static void writeString(DataOutputStream output, String text) throws IOException {
+		if(text == null) {
+			output.writeInt(-1);
+			return;
+		}
+		output.writeInt(text.length());
+		output.writeChars(text);
+	}
+}
@@ -0,0 +1,383 @@
+package com.android.voicelaunch;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the apps whose names are the most similar to what was recognized from the user.
+ *
+ * All the recognition results are compared with the apps in a single pass: each app is compared with every hypothesis,
+ * and its score is the best similarity weighted by the confidence of the hypothesis (see {@link #prepareHypotheses(List, float[])}).
+ * Only the best apps are kept while they are compared, in a {@link TopKSelector}.
+ *
+ * It does not use the Android framework, so the matching can also be measured on a plain JVM (see VoiceLaunchBenchmark).
+ */
+class AppMatcher {
+
+	static final int MAX_HYPOTHESES = 5; //Number of recognition results compared with the apps
+	private static final double HYPOTHESIS_RANK_PENALTY = 0.1; //Weight lost by each position in the N-best list when there are no confidences
+	private static final double MIN_HYPOTHESIS_WEIGHT = 0.1;
+
+	private final SimilarityEngine similarityEngine;
+	private final double similarityThreshold;
+	private final int maxResults;
+	private final MatchCascade cascade;
+
+	/**
+	 * Creates a matcher with all the filters of the cascade
+	 * @param similarityEngine algorithm used to compare the names
+	 * @param similarityThreshold from 0 to 1, only apps with a higher similarity are returned
+	 * @param maxResults maximum number of apps returned
+	 */
+	AppMatcher(SimilarityEngine similarityEngine, double similarityThreshold, int maxResults) {
+		this(similarityEngine, similarityThreshold, maxResults, new MatchCascade());
+	}
+
+	/**
+	 * @param cascade filters applied before computing the similarity of each app, it counts the apps they prune
+	 */
+	AppMatcher(SimilarityEngine similarityEngine, double similarityThreshold, int maxResults, MatchCascade cascade) {
+		this.similarityEngine = similarityEngine;
+		this.similarityThreshold = similarityThreshold;
+		this.maxResults = maxResults;
+		this.cascade = cascade;
+	}
+
+	MatchCascade getCascade() {
+		return cascade;
+	}
+
+	/**
+	 * Normalizes a text
+	 * @param text
+	 * @return the input text without spaces and in lower case
+	 */
+	static String normalize(String text){
+		return text.trim().toLowerCase(Locale.KOREA);
+	}
+
+	/**
+	 * Obtains the apps which name is similar to what was recognized from the user.
+	 * @param apps apps installed on the device
+	 * @param labelTree BK-tree with the same apps, used instead of comparing all of them when the engine computes the Levenshtein similarity.
+	 * If it is null, all the apps are compared
+	 * @param gramIndex n-gram index of the same apps, used before the BK-tree to discard the apps that cannot reach the threshold. It may be null
+	 * @param nBestList Names of the app recognized from the user input, from most to least likely
+	 * @param nBestConfidences Confidences of the recognition results, it may be null
+	 * @return at most maxResults apps with their similarities, already sorted from most to least similar
+	 */
+	TopKSelector<AppEntry> match(AppEntry[] apps, BKTree labelTree, NGramIndex gramIndex, List<String> nBestList, float[] nBestConfidences) {
+		//The recognized names are normalized (and encoded) only once, the labels of the installed apps are already normalized in the index
+		return match(apps, labelTree, gramIndex, prepareHypotheses(nBestList, nBestConfidences));
+	}
+
+	/**
+	 * Same as {@link #match(AppEntry[], BKTree, NGramIndex, List, float[])}, but the recognized names that were already
+	 * matched alone (e.g. in the partial results) are not compared with the apps again: their matches are combined with
+	 * the weights of this recognition, and only the rest of the names are compared.
+	 *
+	 * The result is the same: the score of an app is its best weighted similarity, so an app that is not among the best
+	 * ones for any of the names (nor for the rest of them together) cannot be among the best ones for all of them.
+	 * @param knownMatches matches of single names by normalized name, computed by a matcher with the same parameters with
+	 * {@link #match(AppEntry[], BKTree, NGramIndex, List, float[])} for the same apps and a list with just that name
+	 */
+	TopKSelector<AppEntry> match(AppEntry[] apps, BKTree labelTree, NGramIndex gramIndex, List<String> nBestList, float[] nBestConfidences,
+			Map<String, TopKSelector<AppEntry>> knownMatches) {
+		Hypothesis[] hypotheses = prepareHypotheses(nBestList, nBestConfidences);
+
+		IdentityHashMap<AppEntry, Double> scores = new IdentityHashMap<AppEntry, Double>();
+		ArrayList<Hypothesis> unknown = new ArrayList<Hypothesis>(hypotheses.length);
+		for(Hypothesis hypothesis : hypotheses) {
+			TopKSelector<AppEntry> known = knownMatches.get(hypothesis.query);
+			if(known == null) {
+				unknown.add(hypothesis);
+				continue;
+			}
+			//It was matched alone, with weight 1, so its scores are the similarities
+			for(int i=0; i < known.size(); i++)
+				addScore(scores, known.getItem(i), hypothesis.weight * known.getScore(i));
+		}
+		if(unknown.size() == hypotheses.length)
+			return match(apps, labelTree, gramIndex, hypotheses);
+
+		if(!unknown.isEmpty()) {
+			TopKSelector<AppEntry> rest = match(apps, labelTree, gramIndex, unknown.toArray(new Hypothesis[unknown.size()]));
+			for(int i=0; i < rest.size(); i++)
+				addScore(scores, rest.getItem(i), rest.getScore(i));
+		}
+
+		TopKSelector<AppEntry> bestApps = new TopKSelector<AppEntry>(maxResults);
+		offerInCatalogOrder(apps, scores, bestApps);
+		bestApps.sort();
+		return bestApps;
+	}
+
+	private TopKSelector<AppEntry> match(AppEntry[] apps, BKTree labelTree, NGramIndex gramIndex, Hypothesis[] hypotheses) {
+		//Only the best apps are kept while they are compared, instead of keeping all of them and sorting them afterwards
+		TopKSelector<AppEntry> bestApps = new TopKSelector<AppEntry>(maxResults);
+
+		if(labelTree != null && similarityEngine.isLevenshteinSimilarity() && similarityThreshold > 0) {
+			//Only the apps that share enough n-grams with a recognized name can reach the threshold, so only those are scored.
+			//If the threshold is too low for the n-gram filter to discard anything, the BK-tree is searched instead
+			AppEntry[] candidates = (gramIndex == null) ? null : filterCandidates(gramIndex, hypotheses);
+			if(candidates != null)
+				scoreAll(candidates, hypotheses, bestApps);
+			else
+				searchLabelTree(apps, labelTree, hypotheses, bestApps);
+		} else {
+			scoreAll(apps, hypotheses, bestApps);
+		}
+
+		bestApps.sort();
+		return bestApps;
+	}
+
+	/**
+	 * Matches only a few apps, e.g. the ones launched most often (see {@link LaunchHistory#getHotSet()}), before the whole catalog.
+	 * If the best of them is similar enough to what was recognized, it is taken as the result and the catalog does not have to be scanned.
+	 * @param hotApps the apps matched first
+	 * @param acceptScore minimum score of the best app to accept the result, it is never lower than the threshold
+	 * @return the result, already sorted, or null if no app reaches acceptScore and the whole catalog has to be matched
+	 */
+	TopKSelector<AppEntry> matchEarly(AppEntry[] hotApps, double acceptScore, List<String> nBestList, float[] nBestConfidences) {
+		if(hotApps.length == 0)
+			return null;
+		TopKSelector<AppEntry> bestApps = match(hotApps, null, null, nBestList, nBestConfidences);
+		if(bestApps.size() == 0 || bestApps.getScore(0) < Math.max(acceptScore, similarityThreshold))
+			return null;
+		return bestApps;
+	}
+
+	/**
+	 * Scores all the apps, splitting large catalogs among several threads (small ones are scored in this thread)
+	 */
+	private void scoreAll(final AppEntry[] apps, final Hypothesis[] hypotheses, TopKSelector<AppEntry> bestApps) {
+		ParallelScorer.score(apps.length, new ParallelScorer.RangeScorer() {
+			@Override
+			public void score(int from, int to, TopKSelector<AppEntry> selector) {
+				scoreApps(apps, from, to, hypotheses, selector);
+			}
+		}, bestApps);
+	}
+
+	/**
+	 * Finds the apps that may reach the threshold for any of the hypotheses with the n-gram index
+	 * @return the candidates in catalog order, or null if the index cannot discard apps for some hypothesis
+	 */
+	private AppEntry[] filterCandidates(NGramIndex gramIndex, Hypothesis[] hypotheses) {
+		int[] positions = new int[0];
+		for(Hypothesis hypothesis : hypotheses) {
+			double minSimilarity = similarityThreshold / hypothesis.weight;
+			if(minSimilarity >= 1)
+				continue; //Not even an identical name would pass the threshold
+
+			int[] found = gramIndex.candidates(hypothesis.query, minSimilarity);
+			if(found == null)
+				return null;
+			positions = union(positions, found);
+		}
+
+		AppEntry[] entries = gramIndex.getEntries();
+		AppEntry[] candidates = new AppEntry[positions.length];
+		for(int i=0; i < positions.length; i++)
+			candidates[i] = entries[positions[i]];
+		return candidates;
+	}
+
+	/**
+	 * @return the positions that are in a or in b, both ascending and without repetitions
+	 */
+	private static int[] union(int[] a, int[] b) {
+		int[] union = new int[a.length + b.length];
+		int i = 0, j = 0, size = 0;
+		while(i < a.length || j < b.length) {
+			if(j == b.length || (i < a.length && a[i] < b[j]))
+				union[size++] = a[i++];
+			else if(i == a.length || b[j] < a[i])
+				union[size++] = b[j++];
+			else {
+				union[size++] = a[i++];
+				j++;
+			}
+		}
+		int[] result = new int[size];
+		System.arraycopy(union, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * Visits only the apps whose labels are close enough to a recognized name in the BK-tree.
+	 * An app may be found for several hypotheses, it keeps the best weighted similarity
+	 * @param apps the apps in the tree, in catalog order
+	 */
+	private void searchLabelTree(AppEntry[] apps, BKTree labelTree, Hypothesis[] hypotheses, TopKSelector<AppEntry> bestApps) {
+		final IdentityHashMap<AppEntry, Double> found = new IdentityHashMap<AppEntry, Double>();
+		for(final Hypothesis hypothesis : hypotheses) {
+			double minSimilarity = similarityThreshold / hypothesis.weight;
+			if(minSimilarity >= 1)
+				continue; //Not even an identical name would pass the threshold
+
+			labelTree.search(hypothesis.query, minSimilarity, new BKTree.MatchListener() {
+				@Override
+				public void onMatch(AppEntry entry, double similarity) {
+					addScore(found, entry, hypothesis.weight * similarity);
+				}
+			});
+		}
+		offerInCatalogOrder(apps, found, bestApps);
+	}
+
+	/**
+	 * Keeps the best score of each app
+	 */
+	private static void addScore(IdentityHashMap<AppEntry, Double> scores, AppEntry entry, double score) {
+		Double previous = scores.get(entry);
+		if(previous == null || score > previous)
+			scores.put(entry, score);
+	}
+
+	/**
+	 * Offers the apps with a score above the threshold in catalog order, as {@link #scoreAll(AppEntry[], Hypothesis[], TopKSelector)}
+	 * does, so that apps with the same score are ranked the same way however they were found.
+	 * Looking up every app is much cheaper than computing its similarity, and it does not depend on the hash order
+	 */
+	private void offerInCatalogOrder(AppEntry[] apps, IdentityHashMap<AppEntry, Double> scores, TopKSelector<AppEntry> bestApps) {
+		if(scores.isEmpty())
+			return;
+		for(AppEntry entry : apps) {
+			Double score = scores.get(entry);
+			if(score != null && score > similarityThreshold)
+				bestApps.offer(entry, score);
+		}
+	}
+
+	/**
+	 * Prepares the recognition results to be compared with the apps: they are normalized and prepared by the similarity engine
+	 * (see {@link SimilarityEngine#prepare(String)}). This is done only once per recognition.
+	 *
+	 * Each hypothesis is also given a weight from 0 to 1, by which its similarities are multiplied. The best one has weight 1,
+	 * so with a single result the similarity is not changed. The rest are weighted by their confidence relative to the best one,
+	 * or, if the recognizer does not provide confidences, by their position in the list.
+	 */
+	private Hypothesis[] prepareHypotheses(List<String> nBestList, float[] nBestConfidences) {
+		double[] weights = hypothesisWeights(nBestList, nBestConfidences);
+
+		Hypothesis[] hypotheses = new Hypothesis[weights.length];
+		for(int h=0; h < weights.length; h++) {
+			//The engine prepares the recognized name only once (e.g. encodes it), and then it is compared with every app
+			String query = normalize(nBestList.get(h));
+			hypotheses[h] = new Hypothesis(query, similarityEngine.prepare(query), weights[h]);
+		}
+		return hypotheses;
+	}
+
+	/**
+	 * @return the weights of the hypotheses that are compared with the apps, see {@link #prepareHypotheses(List, float[])}
+	 */
+	private static double[] hypothesisWeights(List<String> nBestList, float[] nBestConfidences) {
+		int n = Math.min(nBestList.size(), MAX_HYPOTHESES);
+		boolean useConfidences = nBestConfidences != null && nBestConfidences.length >= n && nBestConfidences[0] > 0;
+
+		double[] weights = new double[n];
+		for(int h=0; h < n; h++) {
+			double weight;
+			if(h == 0)
+				weight = 1;
+			else if(useConfidences && nBestConfidences[h] > 0)
+				weight = Math.min(1, nBestConfidences[h] / nBestConfidences[0]);
+			else
+				weight = 1 - HYPOTHESIS_RANK_PENALTY * h;
+			weights[h] = Math.max(MIN_HYPOTHESIS_WEIGHT, weight);
+		}
+		return weights;
+	}
+
+	/**
+	 * Returns a key that identifies the result of {@link #match(AppEntry[], BKTree, NGramIndex, List, float[])} for these
+	 * recognition results and the parameters of this matcher, for the same apps (see {@link MatchCache}).
+	 * It includes the normalized hypotheses and their weights, the engine, the threshold and the number of results.
+	 */
+	String getCacheKey(List<String> nBestList, float[] nBestConfidences) {
+		double[] weights = hypothesisWeights(nBestList, nBestConfidences);
+
+		StringBuilder key = new StringBuilder();
+		key.append(similarityEngine.getName()).append('|').append(similarityThreshold).append('|').append(maxResults);
+		for(int h=0; h < weights.length; h++) {
+			key.append('\n').append(weights[h]).append('|').append(normalize(nBestList.get(h)));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Measures the similarity of the apps from position <code>from</code> to <code>to</code> (exclusive) with the
+	 * recognized names, and offers the ones above the threshold to the selector. Each app is visited once and compared
+	 * with all the hypotheses, going through the filters of the cascade first. It may be invoked from several threads
+	 * at the same time, with different ranges and selectors.
+	 */
+	private void scoreApps(AppEntry[] apps, int from, int to, Hypothesis[] hypotheses, TopKSelector<AppEntry> bestApps) {
+		long compared = 0;
+		long prunedByLength = 0;
+		long prunedByHistogram = 0;
+
+		//For all apps in the range...
+		for(int i=from; i < to; i++) {
+			//The match is abandoned when its thread is interrupted, e.g. when VoiceLaunch cancels a stale recognition
+			if((i & 255) == 0 && Thread.currentThread().isInterrupted())
+				break;
+
+			AppEntry entry = apps[i];
+			double score = 0;
+
+			for(Hypothesis hypothesis : hypotheses) {
+				//The weighted similarity has to beat the threshold and the best score of the app so far. Besides, once the selector
+				//is full, it has to beat the worst app kept. So the comparison can give up sooner
+				double minScore = Math.max(similarityThreshold, score);
+				if(bestApps.isFull())
+					minScore = Math.max(minScore, bestApps.worstScore());
+				double minSimilarity = minScore / hypothesis.weight;
+				if(minSimilarity > 1)
+					continue;
+				compared++;
+
+				//The cheap bounds reject many apps without measuring their similarity
+				if(cascade.isLengthFilter() && hypothesis.prepared.upperBound(entry) < minSimilarity) {
+					prunedByLength++;
+					continue;
+				}
+				if(cascade.isHistogramFilter() && hypothesis.prepared.histogramBound(entry) < minSimilarity) {
+					prunedByHistogram++;
+					continue;
+				}
+
+				//Measures similarity of the app's name with the user input
+				double similarity = hypothesis.prepared.score(entry, minSimilarity);
+				score = Math.max(score, hypothesis.weight * similarity);
+			}
+
+			//Adds the app to the collection if the similarity is higher than the threshold
+			if(score > similarityThreshold) {
+				bestApps.offer(entry, score);
+			}
+		}
+
+		cascade.record(compared, prunedByLength, prunedByHistogram);
+	}
+
+	/**
+	 * A recognition result, prepared to be compared with the apps.
+	 */
+	private static class Hypothesis {
+		final String query;								//Normalized recognized name
+		final SimilarityEngine.PreparedQuery prepared;	//Query prepared by the selected similarity engine
+		final double weight;							//Weight of its similarities, from 0 to 1
+
+		Hypothesis(String query, SimilarityEngine.PreparedQuery prepared, double weight) {
+			this.query = query;
+			this.prepared = prepared;
+			this.weight = weight;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.android.voicelaunch;
+
+import java.util.ArrayList;
+
+/**
+ * BK-tree (Burkhard-Keller metric tree) over the normalized labels of the apps, using the Levenshtein distance.
+ *
+ * Each node stores a label, and its children are classified by their distance to it. Because of the triangle
+ * inequality, when looking for labels at distance at most r from the query, only the children whose distance
+ * to the node is between d - r and d + r have to be visited, where d is the distance between the query and the node.
+ *
+ * Apps can be added and removed as packages change. Removed labels are kept in the tree as routing nodes,
+ * and the tree is rebuilt when there are more of them than of labels in use.
+ */
+class BKTree {
+
+	/**
+	 * Receives the apps found by {@link BKTree#search(String, double, MatchListener)}
+	 */
+	interface MatchListener {
+		void onMatch(AppEntry entry, double similarity);
+	}
+
+	private static class Node {
+		final String label;
+		final ArrayList<AppEntry> entries = new ArrayList<AppEntry>(1);	//Apps with this label, empty if they were removed
+		int[] childDistances = new int[0];
+		Node[] children = new Node[0];
+
+		Node(String label) {
+			this.label = label;
+		}
+
+		Node getChild(int distance) {
+			for(int i=0; i < childDistances.length; i++) {
+				if(childDistances[i] == distance)
+					return children[i];
+			}
+			return null;
+		}
+
+		void addChild(int distance, Node child) {
+			int n = children.length;
+			int[] newDistances = new int[n + 1];
+			Node[] newChildren = new Node[n + 1];
+			System.arraycopy(childDistances, 0, newDistances, 0, n);
+			System.arraycopy(children, 0, newChildren, 0, n);
+			newDistances[n] = distance;
+			newChildren[n] = child;
+			childDistances = newDistances;
+			children = newChildren;
+		}
+	}
+
+	private Node root;
+	private int nodes = 0;			//Number of nodes, including the ones of removed labels
+	private int emptyNodes = 0;		//Number of nodes whose apps were all removed
+
+	/**
+	 * Adds an app to the tree, using its normalized label as key
+	 */
+	synchronized void add(AppEntry entry) {
+		String label = entry.getNormalizedName();
+
+		if(root == null) {
+			root = new Node(label);
+			root.entries.add(entry);
+			nodes++;
+			return;
+		}
+
+		Node node = root;
+		while(true) {
+			int distance = LevenshteinDistance.levenshteinDistance(label, node.label);
+			if(distance == 0) {
+				if(node.entries.isEmpty())
+					emptyNodes--;
+				node.entries.add(entry);
+				return;
+			}
+
+			Node child = node.getChild(distance);
+			if(child == null) {
+				child = new Node(label);
+				child.entries.add(entry);
+				node.addChild(distance, child);
+				nodes++;
+				return;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * Removes an app from the tree
+	 * @return true if it was in the tree
+	 */
+	synchronized boolean remove(AppEntry entry) {
+		String label = entry.getNormalizedName();
+
+		Node node = root;
+		while(node != null) {
+			int distance = LevenshteinDistance.levenshteinDistance(label, node.label);
+			if(distance == 0) {
+				if(!node.entries.remove(entry))
+					return false;
+
+				if(node.entries.isEmpty()) {
+					emptyNodes++;
+					if(emptyNodes > nodes - emptyNodes)
+						rebuild();
+				}
+				return true;
+			}
+			node = node.getChild(distance);
+		}
+		return false;
+	}
+
+	/**
+	 * Builds the tree again with the apps that were not removed, dropping the nodes that are not in use
+	 */
+	private void rebuild() {
+		ArrayList<AppEntry> entries = new ArrayList<AppEntry>(nodes - emptyNodes);
+		collect(root, entries);
+
+		root = null;
+		nodes = 0;
+		emptyNodes = 0;
+		for(AppEntry entry : entries)
+			add(entry);
+	}
+
+	private void collect(Node node, ArrayList<AppEntry> entries) {
+		if(node == null)
+			return;
+		entries.addAll(node.entries);
+		for(Node child : node.children)
+			collect(child, entries);
+	}
+
+	/**
+	 * Finds the apps whose similarity with the query is higher than the threshold. The similarity is computed
+	 * as in {@link LevenshteinDistance#computeLevenshteinDistance(String, String)}.
+	 * @param query normalized recognized name
+	 * @param similarityThreshold from 0 to 1, only apps with a higher similarity are reported
+	 * @param listener receives each app found, with its similarity
+	 */
+	synchronized void search(String query, double similarityThreshold, MatchListener listener) {
+		if(root == null)
+			return;
+
+		int radius = searchRadius(query.length(), similarityThreshold);
+		ArrayList<Node> pending = new ArrayList<Node>();
+		pending.add(root);
+
+		while(!pending.isEmpty()) {
+			Node node = pending.remove(pending.size() - 1);
+			int distance = LevenshteinDistance.levenshteinDistance(query, node.label);
+
+			if(!node.entries.isEmpty()) {
+				int maxLength = Math.max(query.length(), node.label.length());
+				double similarity = (maxLength == 0) ? 1 : 1 - (double) distance / maxLength;
+				if(similarity > similarityThreshold) {
+					for(AppEntry entry : node.entries)
+						listener.onMatch(entry, similarity);
+				}
+			}
+
+			//Only the children in the ring [distance - radius, distance + radius] can contain matches
+			for(int i=0; i < node.children.length; i++) {
+				if(Math.abs(node.childDistances[i] - distance) <= radius)
+					pending.add(node.children[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return the highest distance at which a label can still be more similar to a query of that length than the threshold
+	 */
+	static int searchRadius(int queryLength, double similarityThreshold) {
+		if(similarityThreshold <= 0)
+			return Integer.MAX_VALUE;
+
+		//similarity = 1 - d / max(|query|, |label|) > t, and d >= |label| - |query|, so the distance is
+		//lower than (1 - t) * |query| / t regardless of the length of the label
+		double bound = (1 - similarityThreshold) * queryLength / similarityThreshold;
+		if(bound >= Integer.MAX_VALUE / 2)
+			return Integer.MAX_VALUE;	//Any label can match, and the lengths below would overflow
+		int radius = (int) Math.floor(bound);
+		//Corrects the rounding errors of the floating point operations, as the similarity of the labels at the boundary
+		//(whose length is |query| + d) is computed in floating point too
+		while(radius > 0 && !isWithinThreshold(radius, queryLength + radius, similarityThreshold))
+			radius--;
+		while(isWithinThreshold(radius + 1, queryLength + radius + 1, similarityThreshold))
+			radius++;
+		return Math.max(0, radius);
+	}
+
+	private static boolean isWithinThreshold(int distance, int maxLength, double similarityThreshold) {
+		return 1 - (double) distance / maxLength > similarityThreshold;
+	}
+}
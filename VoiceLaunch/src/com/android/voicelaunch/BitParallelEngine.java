@@ -0,0 +1,40 @@
+package com.android.voicelaunch;
+
+/**
+ * Same similarity as {@link LevenshteinEngine}, computed with the bit-parallel algorithm of {@link BitParallelLevenshtein}.
+ * The bitmasks of the recognized name are computed when it is prepared, and then compared with every app.
+ */
+class BitParallelEngine implements SimilarityEngine {
+
+	@Override
+	public String getName() {
+		return SimilarityEngines.BIT_PARALLEL;
+	}
+
+	@Override
+	public boolean isLevenshteinSimilarity() {
+		return true;
+	}
+
+	@Override
+	public PreparedQuery prepare(final String query) {
+		final BitParallelLevenshtein pattern = new BitParallelLevenshtein(query);
+		final int[] queryHistogram = CharHistogram.of(query);
+		return new PreparedQuery() {
+			@Override
+			public double score(AppEntry entry, double minSimilarity) {
+				return pattern.computeSimilarity(entry.getNormalizedName(), minSimilarity);
+			}
+
+			@Override
+			public double upperBound(AppEntry entry) {
+				return LevenshteinEngine.lengthUpperBound(query, entry.getNormalizedName());
+			}
+
+			@Override
+			public double histogramBound(AppEntry entry) {
+				return LevenshteinEngine.histogramUpperBound(query, queryHistogram, entry.getNormalizedName());
+			}
+		};
+	}
+}
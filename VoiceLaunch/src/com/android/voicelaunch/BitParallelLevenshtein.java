@@ -0,0 +1,146 @@
+package com.android.voicelaunch;
+
+import java.util.Arrays;
+
+/**
+ * Levenshtein distance computed with Myers' bit-vector algorithm (in the formulation by Hyyrö, which computes
+ * the distance between whole strings). A whole column of the distance matrix is stored in a <code>long</code>,
+ * so comparing with a text of n characters takes O(n) word operations.
+ *
+ * The pattern (the recognized name) is preprocessed only once, into a bitmask per character that tells in which
+ * positions of the pattern it appears, and then it is compared with every app label. Instances are immutable,
+ * so the same pattern can be used from several threads.
+ *
+ * Patterns longer than {@link #MAX_PATTERN_LENGTH} do not fit in a <code>long</code>, for them the classic
+ * computation of {@link LevenshteinDistance} is used instead.
+ */
+class BitParallelLevenshtein {
+
+	static final int MAX_PATTERN_LENGTH = 64;
+
+	private static final int ASCII_SIZE = 128;
+
+	private final String pattern;
+	private final int length;
+	private final boolean bitParallel;	//False when the pattern is too long and the classic computation is used
+	private final long lastBit;			//Bit of the last character of the pattern
+
+	private final long[] asciiMasks = new long[ASCII_SIZE];	//Masks for the characters below 128, by code
+	private final int[] keys;			//Open addressing table for the rest of the characters (-1 = empty)
+	private final long[] masks;
+
+	/**
+	 * Preprocesses the pattern, so that it can be compared with many texts
+	 * @param pattern normalized recognized name
+	 */
+	BitParallelLevenshtein(String pattern) {
+		this.pattern = pattern;
+		this.length = pattern.length();
+		this.bitParallel = length <= MAX_PATTERN_LENGTH;
+		this.lastBit = (length == 0) ? 0 : 1L << (length - 1);
+
+		//The table size is a power of two with room for all the characters of the pattern
+		int tableSize = 1;
+		while (tableSize < 2 * Math.min(length, MAX_PATTERN_LENGTH))
+			tableSize <<= 1;
+		keys = new int[tableSize];
+		masks = new long[tableSize];
+		Arrays.fill(keys, -1);
+
+		if (bitParallel) {
+			for (int i = 0; i < length; i++) {
+				char c = pattern.charAt(i);
+				if (c < ASCII_SIZE) {
+					asciiMasks[c] |= 1L << i;
+				} else {
+					int slot = slot(c);
+					keys[slot] = c;
+					masks[slot] |= 1L << i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return position of the character in the table: the one where it is stored, or the empty one where it would be
+	 */
+	private int slot(char c) {
+		int mask = keys.length - 1;
+		int slot = (c * 0x9E3779B1) >>> 16 & mask;
+		while (keys[slot] != -1 && keys[slot] != c)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private long mask(char c) {
+		if (c < ASCII_SIZE)
+			return asciiMasks[c];
+		int slot = slot(c);
+		return (keys[slot] == c) ? masks[slot] : 0;
+	}
+
+	/**
+	 * @return Levenshtein distance between the pattern and the text
+	 */
+	int distance(CharSequence text) {
+		return distance(text, Math.max(length, text.length()));
+	}
+
+	/**
+	 * Computes the distance only if it is not higher than maxDistance
+	 * @return the distance, or maxDistance + 1 if it is higher than maxDistance
+	 */
+	int distance(CharSequence text, int maxDistance) {
+		if (!bitParallel)
+			return LevenshteinDistance.levenshteinDistance(pattern, text, maxDistance);
+
+		int textLength = text.length();
+		if (Math.abs(length - textLength) > maxDistance)
+			return maxDistance + 1;
+		if (length == 0)
+			return textLength;
+
+		long pv = -1L;	//Vertical positive deltas (all +1 in the first column)
+		long mv = 0;	//Vertical negative deltas
+		int score = length;
+
+		for (int j = 0; j < textLength; j++) {
+			long eq = mask(text.charAt(j));
+			long xv = eq | mv;
+			long xh = (((eq & pv) + pv) ^ pv) | eq;
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+
+			if ((ph & lastBit) != 0)
+				score++;
+			else if ((mh & lastBit) != 0)
+				score--;
+
+			//Each remaining character can lower the distance by one at most
+			if (score - (textLength - j - 1) > maxDistance)
+				return maxDistance + 1;
+
+			//The first row of the matrix grows by one in each column
+			ph = (ph << 1) | 1;
+			mh = mh << 1;
+			pv = mh | ~(xv | ph);
+			mv = ph & xv;
+		}
+
+		return (score > maxDistance) ? maxDistance + 1 : score;
+	}
+
+	/**
+	 * Similarity between the pattern and the text, computed as in {@link LevenshteinDistance#computeLevenshteinDistance(String, String, double)}
+	 * @return similarity from 0 to 1 if it is at least minSimilarity, 0 otherwise
+	 */
+	double computeSimilarity(String text, double minSimilarity) {
+		int maxLength = Math.max(length, text.length());
+		if (maxLength == 0)
+			return 1;
+
+		int distance = distance(text, LevenshteinDistance.maxDistance(maxLength, minSimilarity));
+		double similarity = 1 - (double) distance / maxLength;
+		return (similarity >= minSimilarity) ? similarity : 0;
+	}
+}
@@ -0,0 +1,81 @@
+package com.android.voicelaunch;
+
+/**
+ * Histograms of the characters of a text, used as a cheap lower bound of the edit distance.
+ *
+ * Each insertion, deletion or substitution changes the histogram of a text by at most one character added
+ * and one removed, so the distance between two texts is at least max(P, N), where P is the number of characters
+ * that a has and b lacks and N the number that b has and a lacks (counted with repetitions). Computing it is linear,
+ * while the edit distance is quadratic.
+ *
+ * The characters are counted in {@link #BUCKETS} buckets. Different characters may share a bucket, which can only
+ * make the bound lower, so it remains valid.
+ */
+class CharHistogram {
+
+	static final int BUCKETS = 64;
+
+	//Reusable difference of histograms
+	private static final ThreadLocal<int[]> DIFFERENCE = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[BUCKETS];
+		}
+	};
+
+	private static int bucket(char c) {
+		return c & (BUCKETS - 1);
+	}
+
+	static int[] of(CharSequence text) {
+		int[] histogram = new int[BUCKETS];
+		for(int i=0; i < text.length(); i++)
+			histogram[bucket(text.charAt(i))]++;
+		return histogram;
+	}
+
+	static int[] of(char[] text) {
+		int[] histogram = new int[BUCKETS];
+		for(char c : text)
+			histogram[bucket(c)]++;
+		return histogram;
+	}
+
+	/**
+	 * @param histogram histogram of the first text, see {@link #of(CharSequence)}
+	 * @return lower bound of the number of edits to transform the first text into the second one
+	 */
+	static int distanceLowerBound(int[] histogram, CharSequence text) {
+		int[] difference = DIFFERENCE.get();
+		System.arraycopy(histogram, 0, difference, 0, BUCKETS);
+		for(int i=0; i < text.length(); i++)
+			difference[bucket(text.charAt(i))]--;
+		return maxSide(difference);
+	}
+
+	/**
+	 * Same as {@link #distanceLowerBound(int[], CharSequence)} for a text given as an array
+	 */
+	static int distanceLowerBound(int[] histogram, char[] text) {
+		int[] difference = DIFFERENCE.get();
+		System.arraycopy(histogram, 0, difference, 0, BUCKETS);
+		for(char c : text)
+			difference[bucket(c)]--;
+		return maxSide(difference);
+	}
+
+	/**
+	 * @return the maximum of the positive differences added up and the negative ones added up
+	 */
+	private static int maxSide(int[] difference) {
+		int positive = 0;
+		int negative = 0;
+		for(int d : difference) {
+			if(d > 0)
+				positive += d;
+			else
+				negative -= d;
+		}
+		return Math.max(positive, negative);
+	}
+}
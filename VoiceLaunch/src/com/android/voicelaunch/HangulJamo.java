@@ -0,0 +1,193 @@
+package com.android.voicelaunch;
+
+/**
+ * Similarity between Korean names computed on their jamo (자모) instead of on whole syllables.
+ *
+ * Each Hangul syllable is decomposed into its initial consonant, vowel and (optional) final consonant, so that
+ * a wrong jamo costs a fraction of a syllable instead of a whole one. The decompositions of the app labels are
+ * computed once when they are indexed (see {@link AppEntry}), and the one of the recognized name once per recognition.
+ *
+ * The edit distance is weighted: dropping or adding a final consonant costs half an edit, and so does replacing
+ * a vowel by one that sounds alike (e.g. ㅐ and ㅔ), as these are the usual recognition mistakes.
+ * Characters that are not Hangul syllables are compared as they are, with the normal costs.
+ */
+class HangulJamo {
+
+	private static final char SYLLABLE_FIRST = 0xAC00;	//가
+	private static final char SYLLABLE_LAST = 0xD7A3;	//힣
+	private static final int MEDIALS = 21;
+	private static final int FINALS = 28;			//Including "no final consonant"
+
+	private static final char INITIAL_BASE = 0x1100;	//Conjoining jamo: initial consonants
+	private static final char MEDIAL_BASE = 0x1161;		//Vowels
+	private static final char FINAL_BASE = 0x11A7;		//Final consonants (FINAL_BASE + 0 is not used)
+
+	//Costs are doubled so that they are integers
+	private static final int EDIT = 2;
+	private static final int HALF_EDIT = 1;
+
+	//Vowels that are easily confused, by index in the medial series: ㅐ/ㅔ, ㅒ/ㅖ, ㅙ/ㅚ/ㅞ
+	private static final int[] VOWEL_GROUP = new int[MEDIALS];
+	static {
+		VOWEL_GROUP[1] = VOWEL_GROUP[5] = 1;
+		VOWEL_GROUP[3] = VOWEL_GROUP[7] = 2;
+		VOWEL_GROUP[10] = VOWEL_GROUP[11] = VOWEL_GROUP[15] = 3;
+	}
+
+	//Reusable rows of the distance matrix, grown on demand
+	private static final ThreadLocal<int[][]> ROWS = new ThreadLocal<int[][]>() {
+		@Override
+		protected int[][] initialValue() {
+			return new int[2][64];
+		}
+	};
+
+	/**
+	 * Decomposes the Hangul syllables of the text into their jamo
+	 * @return the jamo, as conjoining jamo characters, and the rest of characters unchanged
+	 */
+	static char[] decompose(String text) {
+		int length = 0;
+		for(int i=0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if(isSyllable(c))
+				length += ((c - SYLLABLE_FIRST) % FINALS == 0) ? 2 : 3;
+			else
+				length++;
+		}
+
+		char[] jamo = new char[length];
+		int j = 0;
+		for(int i=0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if(isSyllable(c)) {
+				int index = c - SYLLABLE_FIRST;
+				jamo[j++] = (char) (INITIAL_BASE + index / (MEDIALS * FINALS));
+				jamo[j++] = (char) (MEDIAL_BASE + (index % (MEDIALS * FINALS)) / FINALS);
+				if(index % FINALS != 0)
+					jamo[j++] = (char) (FINAL_BASE + index % FINALS);
+			} else {
+				jamo[j++] = c;
+			}
+		}
+		return jamo;
+	}
+
+	private static boolean isSyllable(char c) {
+		return c >= SYLLABLE_FIRST && c <= SYLLABLE_LAST;
+	}
+
+	private static boolean isFinal(char c) {
+		return c > FINAL_BASE && c < FINAL_BASE + FINALS;
+	}
+
+	private static boolean isMedial(char c) {
+		return c >= MEDIAL_BASE && c < MEDIAL_BASE + MEDIALS;
+	}
+
+	/**
+	 * @return cost of inserting or deleting the jamo
+	 */
+	private static int indelCost(char c) {
+		return isFinal(c) ? HALF_EDIT : EDIT;
+	}
+
+	/**
+	 * @return cost of replacing the jamo a by b
+	 */
+	private static int substitutionCost(char a, char b) {
+		if(a == b)
+			return 0;
+		if(isMedial(a) && isMedial(b)) {
+			int group = VOWEL_GROUP[a - MEDIAL_BASE];
+			if(group != 0 && group == VOWEL_GROUP[b - MEDIAL_BASE])
+				return HALF_EDIT;
+		}
+		return EDIT;
+	}
+
+	private static int weightedLength(char[] jamo) {
+		int length = 0;
+		for(char c : jamo)
+			length += indelCost(c);
+		return length;
+	}
+
+	/**
+	 * Every edit changes the weighted length by no more than its cost, so the distance is at least the difference
+	 * of the weighted lengths
+	 * @return upper bound of {@link #computeSimilarity(char[], char[], double)}
+	 */
+	static double upperBound(char[] a, char[] b) {
+		int lengthA = weightedLength(a);
+		int lengthB = weightedLength(b);
+		int maxLength = Math.max(lengthA, lengthB);
+		return (maxLength == 0) ? 1 : 1 - (double) Math.abs(lengthA - lengthB) / maxLength;
+	}
+
+	/**
+	 * Every edit costs at least half an edit, and changes the character histogram by at most one jamo added and one
+	 * removed, so the distance is at least the difference of the histograms (see {@link CharHistogram}) in half edits
+	 * @param histogramA histogram of a
+	 * @return upper bound of {@link #computeSimilarity(char[], char[], double)}
+	 */
+	static double histogramUpperBound(char[] a, int[] histogramA, char[] b) {
+		int maxLength = Math.max(weightedLength(a), weightedLength(b));
+		return (maxLength == 0) ? 1 : 1 - (double) (HALF_EDIT * CharHistogram.distanceLowerBound(histogramA, b)) / maxLength;
+	}
+
+	/**
+	 * Similarity from 0 to 1 between two decomposed names: 1 minus the weighted edit distance divided by the
+	 * weighted length of the longest one. The computation stops as soon as the similarity cannot reach minSimilarity.
+	 * @return similarity from 0 to 1 if it is at least minSimilarity, 0 otherwise
+	 */
+	static double computeSimilarity(char[] a, char[] b, double minSimilarity) {
+		int maxLength = Math.max(weightedLength(a), weightedLength(b));
+		if(maxLength == 0)
+			return 1;
+
+		int maxDistance = LevenshteinDistance.maxDistance(maxLength, minSimilarity);
+		if(maxDistance < 0)
+			return 0;
+
+		int[][] rows = ROWS.get();
+		if(rows[0].length < b.length + 1) {
+			rows = new int[2][Math.max(b.length + 1, 2 * rows[0].length)];
+			ROWS.set(rows);
+		}
+		int[] previous = rows[0];
+		int[] current = rows[1];
+
+		previous[0] = 0;
+		for(int j=1; j <= b.length; j++)
+			previous[j] = previous[j - 1] + indelCost(b[j - 1]);
+
+		for(int i=1; i <= a.length; i++) {
+			char ca = a[i - 1];
+			int deletion = indelCost(ca);
+			current[0] = previous[0] + deletion;
+			int rowMinimum = current[0];
+
+			for(int j=1; j <= b.length; j++) {
+				char cb = b[j - 1];
+				int distance = Math.min(Math.min(
+						previous[j] + deletion,
+						current[j - 1] + indelCost(cb)),
+						previous[j - 1] + substitutionCost(ca, cb));
+				current[j] = distance;
+				rowMinimum = Math.min(rowMinimum, distance);
+			}
+
+			//Costs are never negative, so the final distance cannot be lower than this row's minimum
+			if(rowMinimum > maxDistance)
+				return 0;
+
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+
+		double similarity = Math.max(0, 1 - (double) previous[b.length] / maxLength);
+		return (similarity >= minSimilarity) ? similarity : 0;
+	}
+}
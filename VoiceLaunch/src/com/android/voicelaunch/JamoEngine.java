@@ -0,0 +1,40 @@
+package com.android.voicelaunch;
+
+/**
+ * Compares Korean names on their jamo, with the weighted edit distance of {@link HangulJamo}.
+ * The recognized name is decomposed when it is prepared, the decompositions of the apps are already in the index.
+ */
+class JamoEngine implements SimilarityEngine {
+
+	@Override
+	public String getName() {
+		return SimilarityEngines.JAMO;
+	}
+
+	@Override
+	public boolean isLevenshteinSimilarity() {
+		return false;
+	}
+
+	@Override
+	public PreparedQuery prepare(String query) {
+		final char[] queryJamo = HangulJamo.decompose(query);
+		final int[] queryHistogram = CharHistogram.of(queryJamo);
+		return new PreparedQuery() {
+			@Override
+			public double score(AppEntry entry, double minSimilarity) {
+				return HangulJamo.computeSimilarity(queryJamo, entry.getJamo(), minSimilarity);
+			}
+
+			@Override
+			public double upperBound(AppEntry entry) {
+				return HangulJamo.upperBound(queryJamo, entry.getJamo());
+			}
+
+			@Override
+			public double histogramBound(AppEntry entry) {
+				return HangulJamo.histogramUpperBound(queryJamo, queryHistogram, entry.getJamo());
+			}
+		};
+	}
+}
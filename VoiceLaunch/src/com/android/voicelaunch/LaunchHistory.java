@@ -0,0 +1,222 @@
+package com.android.voicelaunch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Number of times each app was launched by voice, kept on disk, so that the apps launched most often (the hot set)
+ * can be matched before the rest (see {@link AppMatcher#matchEarly(AppEntry[], double, java.util.List, float[])}).
+ *
+ * The file has a header (magic number and format version) followed by records of a package name and a number of launches.
+ * Every launch appends a record with one launch, so the file is not rewritten. When there are too many records for the
+ * number of packages, it is compacted: it is rewritten with one record per package, keeping only the most launched ones.
+ * As with the {@link AppIndexCache}, it is written to a temporary file that then replaces the previous one.
+ *
+ * The history is loaded the first time it is used, so it should not be used in the UI thread.
+ */
+class LaunchHistory {
+
+	private static final int MAGIC = 0x564C4C48;	//"VLLH"
+	private static final int FORMAT_VERSION = 1;
+
+	static final int HOT_SET_SIZE = 8;			//Number of apps matched before the rest
+	private static final int MIN_HOT_LAUNCHES = 2;	//Apps launched only once are not in the hot set
+	private static final int MAX_PACKAGES = 64;	//Packages kept when the file is compacted, the least launched are forgotten
+	private static final int MIN_RECORDS_TO_COMPACT = 32;
+
+	private final File file;
+	private final HashMap<String, Integer> launches = new HashMap<String, Integer>();
+	private int records = 0;			//Records in the file, there may be several per package
+	private int maxLaunches = 0;
+	private String[] hotSet;			//Computed on demand, null when it has to be computed again
+	private boolean loaded = false;
+
+	/**
+	 * @param file the file is not read until the history is first used
+	 */
+	LaunchHistory(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the packages of the apps launched most often, from most to least launched
+	 */
+	synchronized String[] getHotSet() {
+		ensureLoaded();
+		if(hotSet == null) {
+			ArrayList<Map.Entry<String, Integer>> sorted = sortByLaunches();
+			ArrayList<String> hot = new ArrayList<String>(HOT_SET_SIZE);
+			for(Map.Entry<String, Integer> entry : sorted) {
+				if(hot.size() == HOT_SET_SIZE || entry.getValue() < MIN_HOT_LAUNCHES)
+					break;
+				hot.add(entry.getKey());
+			}
+			hotSet = hot.toArray(new String[hot.size()]);
+		}
+		return hotSet;
+	}
+
+	/**
+	 * @return how often the app was launched, from 0 (never) to 1 (it is the most launched app)
+	 */
+	synchronized double getFrequency(String packageName) {
+		ensureLoaded();
+		Integer count = launches.get(packageName);
+		return (count == null) ? 0 : (double) count / maxLaunches;
+	}
+
+	/**
+	 * Records a launch of the app, appending it to the file (which is compacted if it has grown too much)
+	 */
+	synchronized void recordLaunch(String packageName) throws IOException {
+		ensureLoaded();
+		add(packageName, 1);
+		hotSet = null;
+
+		boolean exists = file.exists();
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		try {
+			if(!exists)
+				writeHeader(output);
+			writeRecord(output, packageName, 1);
+		} finally {
+			output.close();
+		}
+		records++;
+
+		if(records >= MIN_RECORDS_TO_COMPACT && records > 2 * launches.size())
+			compact();
+	}
+
+	private void add(String packageName, int count) {
+		Integer previous = launches.get(packageName);
+		int total = (previous == null) ? count : previous + count;
+		launches.put(packageName, total);
+		maxLaunches = Math.max(maxLaunches, total);
+	}
+
+	/**
+	 * Reads the file the first time the history is used. If it is not valid it is ignored, and if its last record is
+	 * truncated (e.g. the process was killed while appending it) the file is compacted, so that new records are not
+	 * appended after it.
+	 */
+	private void ensureLoaded() {
+		if(loaded)
+			return;
+		loaded = true;
+
+		boolean truncated = false;
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if(input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+					throw new IOException("The file is not a launch history");
+				while(true) {
+					//Only the end of the file between two records is a clean end. If it ends inside a record, the EOFException
+					//of the read marks it as truncated
+					input.mark(1);
+					if(input.read() < 0)
+						break;
+					input.reset();
+
+					String packageName = input.readUTF();
+					int count = input.readInt();
+					if(count <= 0)
+						throw new IOException("The launch history is corrupt");
+					add(packageName, count);
+					records++;
+				}
+			} finally {
+				input.close();
+			}
+		} catch (FileNotFoundException e) {
+			return; //Nothing launched yet
+		} catch (EOFException e) {
+			truncated = true;
+		} catch (IOException e) {
+			launches.clear();
+			maxLaunches = 0;
+			truncated = true;
+		}
+
+		if(truncated) {
+			try {
+				compact();
+			} catch (IOException e) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the file with a single record per package, for the {@link #MAX_PACKAGES} most launched ones
+	 */
+	private void compact() throws IOException {
+		ArrayList<Map.Entry<String, Integer>> sorted = sortByLaunches();
+		File temporary = new File(file.getPath() + ".tmp");
+
+		HashMap<String, Integer> kept = new HashMap<String, Integer>();
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+		try {
+			writeHeader(output);
+			for(Map.Entry<String, Integer> entry : sorted) {
+				if(kept.size() == MAX_PACKAGES)
+					break;
+				writeRecord(output, entry.getKey(), entry.getValue());
+				kept.put(entry.getKey(), entry.getValue());
+			}
+		} finally {
+			output.close();
+		}
+
+		if(!temporary.renameTo(file)) {
+			temporary.delete();
+			throw new IOException("The launch history could not be replaced");
+		}
+
+		//The forgotten packages are also removed from memory, so it is the same as the file
+		launches.clear();
+		maxLaunches = 0;
+		for(Map.Entry<String, Integer> entry : kept.entrySet())
+			add(entry.getKey(), entry.getValue());
+		records = kept.size();
+		hotSet = null;
+	}
+
+	/**
+	 * @return the packages with their launches, from most to least launched
+	 */
+	private ArrayList<Map.Entry<String, Integer>> sortByLaunches() {
+		ArrayList<Map.Entry<String, Integer>> sorted = new ArrayList<Map.Entry<String, Integer>>(launches.entrySet());
+		Collections.sort(sorted, new Comparator<Map.Entry<String, Integer>>() {
+			@Override
+			public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+		return sorted;
+	}
+
+	private static void writeHeader(DataOutputStream output) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeInt(FORMAT_VERSION);
+	}
+
+	private static void writeRecord(DataOutputStream output, String packageName, int count) throws IOException {
+		output.writeUTF(packageName);
+		output.writeInt(count);
+	}
+}
@@ -3,38 +3,130 @@ package com.android.voicelaunch;
 /**
  * From: http://en.wikibooks.org/wiki/Algorithm_Implementation/Strings/Levenshtein_distance#Java
  * 리벤슈타인 거리를 연산 : 리벤슈타인 거리를 0과 1사이의 유사도 값으로 매핑하기 위함
+ *
+ * Only two rows of the distance matrix are kept, and they are reused between comparisons (one pair per thread),
+ * so no arrays are allocated per app. When a maximum distance is given, only the diagonal band that can
+ * contain it is computed (Ukkonen's cutoff), and the computation stops as soon as it is exceeded.
  */
 class LevenshteinDistance {
 
+        //Reusable rows of the distance matrix, grown on demand
+        private static final ThreadLocal<int[][]> ROWS = new ThreadLocal<int[][]>() {
+                @Override
+                protected int[][] initialValue() {
+                        return new int[2][64];
+                }
+        };
+
         private static int minimum(int a, int b, int c) {
                 return Math.min(Math.min(a, b), c);
         }
- 
-        private static int levenshteinDistance(CharSequence str1, CharSequence str2) {
-                int[][] distance = new int[str1.length() + 1][str2.length() + 1];
- 
-                for (int i = 0; i <= str1.length(); i++)
-                        distance[i][0] = i;
-                for (int j = 1; j <= str2.length(); j++)
-                        distance[0][j] = j;
- 
-                for (int i = 1; i <= str1.length(); i++)
-                        for (int j = 1; j <= str2.length(); j++)
-                                distance[i][j] = minimum(
-                                                distance[i - 1][j] + 1,
-                                                distance[i][j - 1] + 1,
-                                                distance[i - 1][j - 1]
-                                                                + ((str1.charAt(i - 1) == str2.charAt(j - 1)) ? 0
+
+        private static int[][] rows(int length) {
+                int[][] rows = ROWS.get();
+                if (rows[0].length < length) {
+                        rows = new int[2][Math.max(length, 2 * rows[0].length)];
+                        ROWS.set(rows);
+                }
+                return rows;
+        }
+
+        static int levenshteinDistance(CharSequence str1, CharSequence str2) {
+                return levenshteinDistance(str1, str2, Math.max(str1.length(), str2.length()));
+        }
+
+        /**
+         * Computes the distance only if it is not higher than maxDistance
+         * @return the distance, or maxDistance + 1 if it is higher than maxDistance
+         */
+        static int levenshteinDistance(CharSequence str1, CharSequence str2, int maxDistance) {
+                int len1 = str1.length();
+                int len2 = str2.length();
+
+                //The distance is never higher than the longest length, this also avoids overflows below
+                maxDistance = Math.min(maxDistance, Math.max(len1, len2));
+                int outOfBand = maxDistance + 1;
+
+                if (maxDistance < 0 || Math.abs(len1 - len2) > maxDistance)
+                        return outOfBand;
+
+                int[][] rows = rows(len2 + 1);
+                int[] previous = rows[0];
+                int[] current = rows[1];
+
+                for (int j = 0; j <= len2; j++)
+                        previous[j] = Math.min(j, outOfBand);
+
+                for (int i = 1; i <= len1; i++) {
+                        //Only the cells with |i - j| <= maxDistance can hold a distance <= maxDistance
+                        int from = Math.max(1, i - maxDistance);
+                        int to = Math.min(len2, i + maxDistance);
+
+                        current[0] = Math.min(i, outOfBand);
+                        if (from > 1)
+                                current[from - 1] = outOfBand;
+
+                        int rowMinimum = current[0];
+                        char c1 = str1.charAt(i - 1);
+                        for (int j = from; j <= to; j++) {
+                                int distance = minimum(
+                                                previous[j] + 1,
+                                                current[j - 1] + 1,
+                                                previous[j - 1]
+                                                                + ((c1 == str2.charAt(j - 1)) ? 0
                                                                                 : 1));
- 
-                return distance[str1.length()][str2.length()];
+                                current[j] = Math.min(distance, outOfBand);
+                                rowMinimum = Math.min(rowMinimum, distance);
+                        }
+                        if (to < len2)
+                                current[to + 1] = outOfBand;
+
+                        //Distances never decrease along a diagonal, so the final one cannot be lower than this row's minimum
+                        if (rowMinimum > maxDistance)
+                                return outOfBand;
+
+                        int[] swap = previous;
+                        previous = current;
+                        current = swap;
+                }
+
+                return previous[len2];
         }
-        
+
         //Our addition to wikipedia's code in order to obtain the distance as a similarity measure from 0 to 1
         static double computeLevenshteinDistance(String a, String b){
-        	double distance = levenshteinDistance(a,b);
-        	double normalizedDistance = distance/Math.max(a.length(), b.length());	
-        	return (1 - normalizedDistance);
+        	return computeLevenshteinDistance(a, b, 0);
+        }
+
+        /**
+         * Same as {@link #computeLevenshteinDistance(String, String)}, but it gives up as soon as the similarity cannot
+         * reach minSimilarity, which is much faster for the apps that are going to be discarded anyway.
+         * @return similarity from 0 to 1 if it is at least minSimilarity, 0 otherwise
+         */
+        static double computeLevenshteinDistance(String a, String b, double minSimilarity){
+        	int maxLength = Math.max(a.length(), b.length());
+        	if (maxLength == 0)
+        		return 1;
+
+        	int distance = levenshteinDistance(a, b, maxDistance(maxLength, minSimilarity));
+        	double similarity = 1 - (double) distance / maxLength;
+        	return (similarity >= minSimilarity) ? similarity : 0;
+        }
+
+        /**
+         * @return the highest distance for which the similarity of strings of that length is still at least minSimilarity
+         */
+        static int maxDistance(int maxLength, double minSimilarity) {
+        	if (minSimilarity <= 0)
+        		return maxLength;
+
+        	int maxDistance = (int) Math.floor((1 - minSimilarity) * maxLength);
+        	//Corrects the rounding errors of the floating point product
+        	while (maxDistance >= 0 && 1 - (double) maxDistance / maxLength < minSimilarity)
+        		maxDistance--;
+        	while (maxDistance < maxLength && 1 - (double) (maxDistance + 1) / maxLength >= minSimilarity)
+        		maxDistance++;
+        	return maxDistance;
         }
-        
+
 }
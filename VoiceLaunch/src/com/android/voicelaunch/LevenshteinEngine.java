@@ -0,0 +1,57 @@
+package com.android.voicelaunch;
+
+/**
+ * Compares the names using the Levenshtein distance, which is the minimal number of characters you have to replace,
+ * insert or delete to transform string a into string b (see {@link LevenshteinDistance}).
+ */
+class LevenshteinEngine implements SimilarityEngine {
+
+	@Override
+	public String getName() {
+		return SimilarityEngines.ORTHOGRAPHIC;
+	}
+
+	@Override
+	public boolean isLevenshteinSimilarity() {
+		return true;
+	}
+
+	@Override
+	public PreparedQuery prepare(final String query) {
+		final int[] queryHistogram = CharHistogram.of(query);
+		return new PreparedQuery() {
+			@Override
+			public double score(AppEntry entry, double minSimilarity) {
+				return LevenshteinDistance.computeLevenshteinDistance(query, entry.getNormalizedName(), minSimilarity);
+			}
+
+			@Override
+			public double upperBound(AppEntry entry) {
+				return lengthUpperBound(query, entry.getNormalizedName());
+			}
+
+			@Override
+			public double histogramBound(AppEntry entry) {
+				return histogramUpperBound(query, queryHistogram, entry.getNormalizedName());
+			}
+		};
+	}
+
+	/**
+	 * The distance is at least the difference of the lengths, so the similarity is at most 1 minus that difference
+	 * divided by the longest length
+	 */
+	static double lengthUpperBound(String a, String b) {
+		int maxLength = Math.max(a.length(), b.length());
+		return (maxLength == 0) ? 1 : 1 - (double) Math.abs(a.length() - b.length()) / maxLength;
+	}
+
+	/**
+	 * The distance is at least the difference of the character histograms (see {@link CharHistogram})
+	 * @param histogramA histogram of a
+	 */
+	static double histogramUpperBound(String a, int[] histogramA, String b) {
+		int maxLength = Math.max(a.length(), b.length());
+		return (maxLength == 0) ? 1 : 1 - (double) CharHistogram.distanceLowerBound(histogramA, b) / maxLength;
+	}
+}
@@ -0,0 +1,61 @@
+package com.android.voicelaunch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of the results of recent matches, so that repeating an app name returns the previous
+ * ranking without scoring the catalog again.
+ *
+ * The results are keyed by {@link AppMatcher#getCacheKey(java.util.List, float[])}, which includes the normalized
+ * recognized names and the matching parameters. They are only valid for the version of the {@link AppIndex} they were
+ * computed with: when the version changes, the cache is emptied.
+ */
+class MatchCache {
+
+	private final LinkedHashMap<String, TopKSelector<AppEntry>> results;
+	private int indexVersion = -1;
+
+	/**
+	 * @param capacity maximum number of results kept, the least recently used are removed first
+	 */
+	MatchCache(final int capacity) {
+		results = new LinkedHashMap<String, TopKSelector<AppEntry>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, TopKSelector<AppEntry>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param indexVersion current version of the index
+	 * @return the result of a previous match with the same key, already sorted and not to be modified, or null if there is none
+	 */
+	synchronized TopKSelector<AppEntry> get(String key, int indexVersion) {
+		invalidate(indexVersion);
+		return (indexVersion == this.indexVersion) ? results.get(key) : null;
+	}
+
+	/**
+	 * Keeps the result of a match. It must not be modified afterwards.
+	 * @param indexVersion version of the index read before matching
+	 */
+	synchronized void put(String key, int indexVersion, TopKSelector<AppEntry> result) {
+		invalidate(indexVersion);
+		if(indexVersion == this.indexVersion)
+			results.put(key, result);
+	}
+
+	/**
+	 * Empties the cache if the index has a newer version. The results of older versions are never kept.
+	 */
+	private void invalidate(int indexVersion) {
+		if(indexVersion > this.indexVersion) {
+			results.clear();
+			this.indexVersion = indexVersion;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.android.voicelaunch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Filters applied by the {@link AppMatcher} to each app, for each recognized name, before its similarity is computed,
+ * from the cheapest to the most expensive:
+ *   1. Length: {@link SimilarityEngine.PreparedQuery#upperBound(AppEntry)}, constant time
+ *   2. Histogram: {@link SimilarityEngine.PreparedQuery#histogramBound(AppEntry)}, linear time
+ *   3. Full similarity: {@link SimilarityEngine.PreparedQuery#score(AppEntry, double)}, for the apps that survive
+ *
+ * An app is pruned by a filter when its bound is below the similarity it needs (to pass the threshold and to enter the
+ * best results). The filters can be disabled, and the number of apps pruned by each one is counted, so that the cascade
+ * can be tuned (see MatchingBenchmark). The counters are shared by the threads that score the apps.
+ */
+class MatchCascade {
+
+	private final boolean lengthFilter;
+	private final boolean histogramFilter;
+
+	private final AtomicLong compared = new AtomicLong();			//Pairs of app and recognized name that entered the cascade
+	private final AtomicLong prunedByLength = new AtomicLong();
+	private final AtomicLong prunedByHistogram = new AtomicLong();
+
+	/**
+	 * Creates a cascade with all the filters
+	 */
+	MatchCascade() {
+		this(true, true);
+	}
+
+	MatchCascade(boolean lengthFilter, boolean histogramFilter) {
+		this.lengthFilter = lengthFilter;
+		this.histogramFilter = histogramFilter;
+	}
+
+	boolean isLengthFilter() {
+		return lengthFilter;
+	}
+
+	boolean isHistogramFilter() {
+		return histogramFilter;
+	}
+
+	/**
+	 * Adds the counts of a range of apps. They are accumulated by each thread and added once per range.
+	 */
+	void record(long compared, long prunedByLength, long prunedByHistogram) {
+		this.compared.addAndGet(compared);
+		this.prunedByLength.addAndGet(prunedByLength);
+		this.prunedByHistogram.addAndGet(prunedByHistogram);
+	}
+
+	long getCompared() {
+		return compared.get();
+	}
+
+	long getPrunedByLength() {
+		return prunedByLength.get();
+	}
+
+	long getPrunedByHistogram() {
+		return prunedByHistogram.get();
+	}
+
+	/**
+	 * @return number of comparisons that reached the full similarity
+	 */
+	long getScored() {
+		return getCompared() - getPrunedByLength() - getPrunedByHistogram();
+	}
+
+	void reset() {
+		compared.set(0);
+		prunedByLength.set(0);
+		prunedByHistogram.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "compared = " + getCompared() + ", pruned by length = " + getPrunedByLength()
+				+ ", pruned by histogram = " + getPrunedByHistogram() + ", scored = " + getScored();
+	}
+}
@@ -0,0 +1,297 @@
+package com.android.voicelaunch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverted index of the character n-grams (trigrams by default) of the normalized labels of the apps,
+ * used to discard the apps that cannot reach a similarity threshold before their edit distance is computed.
+ *
+ * The labels are padded with n-1 special characters at both ends, so a label of length L has L+n-1 n-grams.
+ * Each edit destroys at most n of them, so two strings at edit distance k still share at least
+ * max(|a|,|b|) + n - 1 - k*n n-grams (count filter). The n-grams shared with the recognized name are counted
+ * with the posting lists, and only the apps with enough of them are candidates.
+ *
+ * The index is immutable: it is built for a snapshot of the entries. When an entry is added, replaced or removed,
+ * a new index is derived with {@link #withEntry(int, AppEntry)} or {@link #withoutEntry(int)}, which only copies the
+ * posting lists of the n-grams of the labels that change and shares the rest.
+ */
+class NGramIndex {
+
+	static final int DEFAULT_GRAM_LENGTH = 3;
+	static final int MAX_GRAM_LENGTH = 4;	//The n-grams are packed in a long, 16 bits per character
+
+	private static final char PADDING = '\uFFFF';	//Not a character, so it never appears in a label
+
+	private final int n;
+	private final AppEntry[] entries;
+	private final HashMap<Long, int[]> postings;	//Positions of the entries that have the n-gram, once per occurrence, ascending
+	private final int maxLabelLength;	//May be larger than the longest label after an entry is removed
+
+	//Reusable counters of shared n-grams, one per entry
+	private final ThreadLocal<int[]> counters = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[entries.length];
+		}
+	};
+
+	/**
+	 * @param entries snapshot of the entries, it must not be modified
+	 * @param n length of the n-grams, from 1 to {@link #MAX_GRAM_LENGTH}
+	 */
+	NGramIndex(AppEntry[] entries, int n) {
+		if(n < 1 || n > MAX_GRAM_LENGTH)
+			throw new IllegalArgumentException("The n-gram length must be from 1 to " + MAX_GRAM_LENGTH);
+
+		this.n = n;
+		this.entries = entries;
+
+		HashMap<Long, PostingList> lists = new HashMap<Long, PostingList>();
+		int maxLength = 0;
+		for(int i=0; i < entries.length; i++) {
+			String label = entries[i].getNormalizedName();
+			maxLength = Math.max(maxLength, label.length());
+			for(long gram : grams(label)) {
+				PostingList list = lists.get(gram);
+				if(list == null) {
+					list = new PostingList();
+					lists.put(gram, list);
+				}
+				list.add(i);
+			}
+		}
+
+		postings = new HashMap<Long, int[]>(lists.size() * 4 / 3 + 1);
+		for(Map.Entry<Long, PostingList> list : lists.entrySet()) {
+			postings.put(list.getKey(), list.getValue().toArray());
+		}
+		maxLabelLength = maxLength;
+	}
+
+	/**
+	 * Creates the index with posting lists that were already built for these entries, e.g. read from an {@link AppIndexCache}
+	 */
+	NGramIndex(AppEntry[] entries, int n, HashMap<Long, int[]> postings) {
+		this(entries, n, postings, maxLabelLength(entries));
+		if(n < 1 || n > MAX_GRAM_LENGTH)
+			throw new IllegalArgumentException("The n-gram length must be from 1 to " + MAX_GRAM_LENGTH);
+	}
+
+	private NGramIndex(AppEntry[] entries, int n, HashMap<Long, int[]> postings, int maxLabelLength) {
+		this.n = n;
+		this.entries = entries;
+		this.postings = postings;
+		this.maxLabelLength = maxLabelLength;
+	}
+
+	private static int maxLabelLength(AppEntry[] entries) {
+		int maxLength = 0;
+		for(AppEntry entry : entries)
+			maxLength = Math.max(maxLength, entry.getNormalizedName().length());
+		return maxLength;
+	}
+
+	/**
+	 * Derives the index for the same entries with one of them replaced, or with a new one added at the end
+	 * @param position position of the entry to replace, or the number of entries to add it
+	 */
+	NGramIndex withEntry(int position, AppEntry entry) {
+		AppEntry[] newEntries = new AppEntry[Math.max(entries.length, position + 1)];
+		System.arraycopy(entries, 0, newEntries, 0, entries.length);
+		newEntries[position] = entry;
+
+		HashMap<Long, int[]> newPostings = new HashMap<Long, int[]>(postings);
+		if(position < entries.length)
+			removePosition(newPostings, entries[position], position);
+		addPosition(newPostings, entry, position);
+
+		int maxLength = Math.max(maxLabelLength, entry.getNormalizedName().length());
+		return new NGramIndex(newEntries, n, newPostings, maxLength);
+	}
+
+	/**
+	 * Derives the index for the same entries without one of them. The last entry is moved to its position,
+	 * so only the posting lists of the n-grams of those two labels change
+	 */
+	NGramIndex withoutEntry(int position) {
+		int last = entries.length - 1;
+		AppEntry[] newEntries = new AppEntry[last];
+		System.arraycopy(entries, 0, newEntries, 0, last);
+
+		HashMap<Long, int[]> newPostings = new HashMap<Long, int[]>(postings);
+		removePosition(newPostings, entries[position], position);
+		if(position != last) {
+			newEntries[position] = entries[last];
+			removePosition(newPostings, entries[last], last);
+			addPosition(newPostings, entries[last], position);
+		}
+		return new NGramIndex(newEntries, n, newPostings, maxLabelLength);
+	}
+
+	/**
+	 * Removes the position from the posting lists of the n-grams of the entry. The lists are copied, not modified
+	 */
+	private void removePosition(HashMap<Long, int[]> lists, AppEntry entry, int position) {
+		for(long gram : grams(entry.getNormalizedName())) {
+			int[] positions = lists.get(gram);
+			if(positions == null)
+				continue; //An n-gram repeated in the label, already removed
+			int[] remaining = new int[positions.length];
+			int size = 0;
+			for(int p : positions) {
+				if(p != position)
+					remaining[size++] = p;
+			}
+			if(size == 0)
+				lists.remove(gram);
+			else if(size < positions.length)
+				lists.put(gram, copyOf(remaining, size));
+		}
+	}
+
+	/**
+	 * Adds the position to the posting lists of the n-grams of the entry, once per occurrence, keeping them ascending.
+	 * The lists are copied, not modified
+	 */
+	private void addPosition(HashMap<Long, int[]> lists, AppEntry entry, int position) {
+		for(long gram : grams(entry.getNormalizedName())) {
+			int[] positions = lists.get(gram);
+			if(positions == null) {
+				lists.put(gram, new int[] { position });
+				continue;
+			}
+			int insert = 0;
+			while(insert < positions.length && positions[insert] <= position)
+				insert++;
+			int[] grown = new int[positions.length + 1];
+			System.arraycopy(positions, 0, grown, 0, insert);
+			grown[insert] = position;
+			System.arraycopy(positions, insert, grown, insert + 1, positions.length - insert);
+			lists.put(gram, grown);
+		}
+	}
+
+	/**
+	 * @return the entries the index was built for
+	 */
+	AppEntry[] getEntries() {
+		return entries;
+	}
+
+	int getGramLength() {
+		return n;
+	}
+
+	/**
+	 * @return the posting lists by packed n-gram, they must not be modified
+	 */
+	Map<Long, int[]> getPostings() {
+		return postings;
+	}
+
+	/**
+	 * Finds the entries whose normalized label may have a Levenshtein similarity of at least minSimilarity with the query
+	 * (see {@link LevenshteinDistance#computeLevenshteinDistance(String, String, double)}). Some of them may not reach it,
+	 * but no entry that reaches it is left out.
+	 * @param query normalized recognized name
+	 * @return positions of the candidates in {@link #getEntries()}, ascending, or null if the filter cannot discard
+	 * any entry for this threshold (e.g. when it is low and so many edits are allowed that no n-gram has to be shared)
+	 */
+	int[] candidates(String query, double minSimilarity) {
+		//Minimum number of shared n-grams for each label length
+		int[] required = new int[maxLabelLength + 1];
+		boolean filters = false;
+		for(int length=0; length <= maxLabelLength; length++) {
+			int maxLength = Math.max(length, query.length());
+			int maxDistance = LevenshteinDistance.maxDistance(maxLength, minSimilarity);
+			required[length] = (maxDistance < 0) ? Integer.MAX_VALUE : maxLength + n - 1 - maxDistance * n;
+			filters |= required[length] > 0;
+		}
+		if(!filters)
+			return null;
+
+		int[] counts = counters.get();
+
+		//The shared n-grams are counted as multisets: an n-gram that appears twice in both counts twice
+		long[] queryGrams = grams(query);
+		Arrays.sort(queryGrams);
+		for(int g=0; g < queryGrams.length; ) {
+			long gram = queryGrams[g];
+			int queryCount = 0;
+			while(g < queryGrams.length && queryGrams[g] == gram) {
+				queryCount++;
+				g++;
+			}
+
+			int[] positions = postings.get(gram);
+			if(positions == null)
+				continue;
+			for(int p=0; p < positions.length; ) {
+				int position = positions[p];
+				int labelCount = 0;
+				while(p < positions.length && positions[p] == position) {
+					labelCount++;
+					p++;
+				}
+				counts[position] += Math.min(queryCount, labelCount);
+			}
+		}
+
+		//Entries with labels short enough may need no shared n-gram at all, so every entry is checked (and its counter reset)
+		int[] candidates = new int[entries.length];
+		int size = 0;
+		for(int i=0; i < entries.length; i++) {
+			if(counts[i] >= required[entries[i].getNormalizedName().length()])
+				candidates[size++] = i;
+			counts[i] = 0;
+		}
+		return copyOf(candidates, size);
+	}
+
+	/**
+	 * @return the n-grams of the padded text, packed in longs
+	 */
+	private long[] grams(String text) {
+		int padded = text.length() + 2 * (n - 1);
+		long[] grams = new long[padded - n + 1];
+		for(int start=0; start < grams.length; start++) {
+			long gram = 0;
+			for(int i=start; i < start + n; i++) {
+				int j = i - (n - 1);
+				char c = (j < 0 || j >= text.length()) ? PADDING : text.charAt(j);
+				gram = (gram << 16) | c;
+			}
+			grams[start] = gram;
+		}
+		return grams;
+	}
+
+	/**
+	 * Arrays.copyOf is only available from API level 9
+	 */
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	/**
+	 * Posting list while the index is being built, grown on demand
+	 */
+	private static class PostingList {
+		private int[] positions = new int[4];
+		private int size = 0;
+
+		void add(int position) {
+			if(size == positions.length)
+				positions = copyOf(positions, 2 * size);
+			positions[size++] = position;
+		}
+
+		int[] toArray() {
+			return copyOf(positions, size);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.android.voicelaunch;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores the apps of the index in parallel when there are many of them.
+ *
+ * The apps are split in consecutive ranges, each one is scored by a worker of a bounded pool into its own
+ * {@link TopKSelector}, and the best apps of every range are merged at the end. The calling thread scores the
+ * first range itself. Catalogs with fewer than {@link #MIN_APPS_PER_TASK} apps per worker are scored sequentially,
+ * as the cost of handing them to other threads would be higher than the cost of scoring them.
+ *
+ * (The fork/join framework is only available from API level 21, so a fixed thread pool is used instead.)
+ */
+class ParallelScorer {
+
+	private static final String THREAD_NAME = "ParallelScorer";
+
+	static final int MIN_APPS_PER_TASK = 512;
+
+	private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	private static ExecutorService pool;
+
+	/**
+	 * Scores a range of the apps
+	 */
+	interface RangeScorer {
+		/**
+		 * Scores the apps from position <code>from</code> (inclusive) to <code>to</code> (exclusive),
+		 * offering the ones that pass the threshold to the selector
+		 */
+		void score(int from, int to, TopKSelector<AppEntry> selector);
+	}
+
+	/**
+	 * Creates the pool the first time it is needed. The calling thread also scores, so it has one thread less than processors.
+	 */
+	private static synchronized ExecutorService getPool() {
+		if(pool == null) {
+			final AtomicInteger count = new AtomicInteger();
+			pool = Executors.newFixedThreadPool(Math.max(1, PARALLELISM - 1), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, THREAD_NAME + "-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Scores <code>count</code> apps, sequentially or in parallel depending on how many they are
+	 * @param count number of apps
+	 * @param scorer computes the similarity of a range of apps
+	 * @param result receives the best apps, in the same order a sequential scan would give them
+	 */
+	static void score(int count, RangeScorer scorer, TopKSelector<AppEntry> result) {
+		int tasks = Math.min(PARALLELISM, count / MIN_APPS_PER_TASK);
+		if(tasks <= 1) {
+			scorer.score(0, count, result);
+			return;
+		}
+
+		int rangeSize = (count + tasks - 1) / tasks;
+		ExecutorService executor = getPool();
+		ArrayList<Future<TopKSelector<AppEntry>>> futures = new ArrayList<Future<TopKSelector<AppEntry>>>(tasks - 1);
+
+		for(int from = rangeSize; from < count; from += rangeSize) {
+			futures.add(executor.submit(new RangeTask(scorer, from, Math.min(count, from + rangeSize), result.capacity())));
+		}
+
+		//The first range is scored in the calling thread, its apps come first in the catalog so they go first into the result
+		TopKSelector<AppEntry> first = new TopKSelector<AppEntry>(result.capacity());
+		scorer.score(0, rangeSize, first);
+		merge(first, result);
+
+		try {
+			for(Future<TopKSelector<AppEntry>> future : futures) {
+				merge(future.get(), result);
+			}
+		} catch (InterruptedException e) {
+			for(Future<TopKSelector<AppEntry>> future : futures)
+				future.cancel(true);
+			Thread.currentThread().interrupt(); //The result is incomplete, the caller is being interrupted anyway
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error while scoring apps", e.getCause());
+		}
+	}
+
+	/**
+	 * Offers the best apps of a range to the result. The ranges are merged in catalog order and each one is
+	 * sorted, so apps with the same similarity keep the order of the catalog.
+	 */
+	private static void merge(TopKSelector<AppEntry> range, TopKSelector<AppEntry> result) {
+		range.sort();
+		for(int i=0; i < range.size(); i++) {
+			result.offer(range.getItem(i), range.getScore(i));
+		}
+	}
+
+	private static class RangeTask implements Callable<TopKSelector<AppEntry>> {
+		private final RangeScorer scorer;
+		private final int from;
+		private final int to;
+		private final int capacity;
+
+		RangeTask(RangeScorer scorer, int from, int to, int capacity) {
+			this.scorer = scorer;
+			this.from = from;
+			this.to = to;
+			this.capacity = capacity;
+		}
+
+		@Override
+		public TopKSelector<AppEntry> call() {
+			TopKSelector<AppEntry> selector = new TopKSelector<AppEntry>(capacity);
+			scorer.score(from, to, selector);
+			return selector;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.android.voicelaunch;
+
+import org.apache.commons.codec.language.Soundex;
+
+/**
+ * Soundex codes of the app labels and of the recognized names.
+ * We have used an implementation of this algorithm provided by Apache.
+ * Attention: it only works for English, the texts with other characters (e.g. Hangul) have no code.
+ *
+ * The codes of the labels are computed once, when the app is indexed (see {@link AppEntry}), and the code of
+ * the recognized name once per recognition, so comparing them is just comparing two short strings.
+ */
+class PhoneticCode {
+
+	//The shared US English encoder has no mutable state once created, so it can be used from any thread
+	private static final Soundex ENCODER = Soundex.US_ENGLISH;
+
+	/**
+	 * @return the Soundex code of the text, or null if it cannot be encoded
+	 */
+	static String encode(String text) {
+		try {
+			return ENCODER.encode(text);
+		} catch (IllegalArgumentException e) {
+			return null; //The text has characters that are not mapped by Soundex
+		}
+	}
+
+	/**
+	 * Returns the number of characters in the two encoded Strings that are the same.
+	 * This return value ranges from 0 to the length of the shortest encoded String: 0 indicates little or no similarity,
+	 * and 4 out of 4 (for example) indicates strong similarity or identical values.
+	 * It is the same as {@link Soundex#difference(String, String)}, but with codes already computed.
+	 */
+	static int difference(String code1, String code2) {
+		if(code1 == null || code2 == null)
+			return 0;
+
+		int lengthToMatch = Math.min(code1.length(), code2.length());
+		int difference = 0;
+		for(int i=0; i < lengthToMatch; i++) {
+			if(code1.charAt(i) == code2.charAt(i))
+				difference++;
+		}
+		return difference;
+	}
+
+	/**
+	 * @return similarity from 0 (minimum) to 1 (maximum) of two Soundex codes
+	 */
+	static double similarity(String code1, String code2) {
+		return difference(code1, code2) / 4.0;
+	}
+}
@@ -0,0 +1,45 @@
+package com.android.voicelaunch;
+
+/**
+ * Compares the names using their phonetic similarity, using the soundex algorithm (see {@link PhoneticCode}).
+ * The recognized name is encoded when it is prepared, the codes of the apps are already in the index.
+ * Attention: it only works for English
+ */
+class PhoneticEngine implements SimilarityEngine {
+
+	@Override
+	public String getName() {
+		return SimilarityEngines.PHONETIC;
+	}
+
+	@Override
+	public boolean isLevenshteinSimilarity() {
+		return false;
+	}
+
+	@Override
+	public PreparedQuery prepare(String query) {
+		final String queryCode = PhoneticCode.encode(query);
+		//If the name cannot be encoded (see PhoneticCode.encode), the similarity is forced to 0
+
+		return new PreparedQuery() {
+			@Override
+			public double score(AppEntry entry, double minSimilarity) {
+				return PhoneticCode.similarity(queryCode, entry.getPhoneticCode());
+			}
+
+			@Override
+			public double upperBound(AppEntry entry) {
+				String appCode = entry.getPhoneticCode();
+				if(queryCode == null || appCode == null)
+					return 0;
+				return Math.min(queryCode.length(), appCode.length()) / 4.0;
+			}
+
+			@Override
+			public double histogramBound(AppEntry entry) {
+				return 1; //Comparing the codes is already cheap
+			}
+		};
+	}
+}
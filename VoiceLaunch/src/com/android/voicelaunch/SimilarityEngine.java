@@ -0,0 +1,55 @@
+package com.android.voicelaunch;
+
+/**
+ * Algorithm to measure the similarity between a recognized name and the names of the apps.
+ *
+ * The recognized name is prepared only once per recognition with {@link #prepare(String)} (e.g. encoded or
+ * preprocessed), and the resulting {@link PreparedQuery} is then compared with every app of the index.
+ * Engines are registered in {@link SimilarityEngines} and selected by name.
+ */
+interface SimilarityEngine {
+
+	/**
+	 * A recognized name prepared to be compared with many apps. It must be safe to use from several threads.
+	 */
+	interface PreparedQuery {
+		/**
+		 * Measures the similarity of the app's name with the recognized name. The computation may give up as soon
+		 * as the similarity cannot reach minSimilarity, as the app would be discarded anyway.
+		 * @return similarity from 0 (minimum) to 1 (maximum) if it is at least minSimilarity, a lower value otherwise
+		 */
+		double score(AppEntry entry, double minSimilarity);
+
+		/**
+		 * Cheap estimation of the similarity that is never lower than the one returned by {@link #score(AppEntry, double)},
+		 * so that the apps whose upper bound is below the minimum can be rejected without scoring them
+		 * @return upper bound of the similarity, from 0 to 1
+		 */
+		double upperBound(AppEntry entry);
+
+		/**
+		 * Second estimation of the similarity that is never lower than the one returned by {@link #score(AppEntry, double)}.
+		 * It is more expensive than {@link #upperBound(AppEntry)}, but still linear in the length of the names (e.g. it compares
+		 * their character histograms), so it is used on the apps that pass the first bound before scoring them.
+		 * @return upper bound of the similarity, from 0 to 1. Engines without such a bound return 1
+		 */
+		double histogramBound(AppEntry entry);
+	}
+
+	/**
+	 * @return unique name of the engine, used to register and select it
+	 */
+	String getName();
+
+	/**
+	 * @return true if the similarity is 1 minus the Levenshtein distance divided by the longest length, so the apps
+	 * can be looked up in the {@link BKTree} of the index instead of comparing them all
+	 */
+	boolean isLevenshteinSimilarity();
+
+	/**
+	 * Prepares a recognized name to be compared with the apps
+	 * @param query normalized recognized name
+	 */
+	PreparedQuery prepare(String query);
+}
@@ -0,0 +1,40 @@
+package com.android.voicelaunch;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Registry of the available {@link SimilarityEngine}s. The engines provided by VoiceLaunch are registered
+ * beforehand, and new ones can be added with {@link #register(SimilarityEngine)}.
+ */
+final class SimilarityEngines {
+
+	static final String ORTHOGRAPHIC = "orthographic";
+	static final String BIT_PARALLEL = "bit_parallel";
+	static final String PHONETIC = "phonetic";
+	static final String JAMO = "jamo";
+
+	private static final LinkedHashMap<String, SimilarityEngine> ENGINES = new LinkedHashMap<String, SimilarityEngine>();
+	static {
+		register(new LevenshteinEngine());
+		register(new BitParallelEngine());
+		register(new PhoneticEngine());
+		register(new JamoEngine());
+	}
+
+	private SimilarityEngines() {
+	}
+
+	/**
+	 * Registers an engine, replacing the one with the same name if there was one
+	 */
+	static synchronized void register(SimilarityEngine engine) {
+		ENGINES.put(engine.getName(), engine);
+	}
+
+	/**
+	 * @return the engine registered with that name, or null if there is none
+	 */
+	static synchronized SimilarityEngine get(String name) {
+		return ENGINES.get(name);
+	}
+}
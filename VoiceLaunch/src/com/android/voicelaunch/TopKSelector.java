@@ -0,0 +1,156 @@
+package com.android.voicelaunch;
+
+/**
+ * Keeps the K items with the highest scores among the ones offered, without storing the rest.
+ *
+ * The items are kept in a min-heap of primitive scores, so the worst of the kept items is always at the root
+ * and a new item only has to be compared with it. When two items have the same score, the one offered first
+ * is considered better, as a stable sort would do.
+ *
+ * After {@link #sort()} the items can be read from best to worst with {@link #getItem(int)} and {@link #getScore(int)}.
+ * The selector can be reused for another query after {@link #clear()}.
+ */
+class TopKSelector<T> {
+
+	private final int capacity;
+	private final Object[] items;
+	private final double[] scores;
+	private final int[] order;		//Order in which the items were offered, to break ties
+	private int size = 0;
+	private int offered = 0;
+
+	/**
+	 * @param capacity maximum number of items kept (K)
+	 */
+	TopKSelector(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("The capacity must be at least 1");
+
+		this.capacity = capacity;
+		this.items = new Object[capacity];
+		this.scores = new double[capacity];
+		this.order = new int[capacity];
+	}
+
+	void clear() {
+		for(int i=0; i < size; i++)
+			items[i] = null;
+		size = 0;
+		offered = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	boolean isFull() {
+		return size == capacity;
+	}
+
+	/**
+	 * @return the lowest score kept. When the selector is full, items with this score or lower are not kept
+	 */
+	double worstScore() {
+		return scores[0];
+	}
+
+	/**
+	 * Offers an item to the selector
+	 * @return true if it is kept (for now, it can be replaced by a better item later)
+	 */
+	boolean offer(T item, double score) {
+		int itemOrder = offered++;
+
+		if(size < capacity) {
+			int i = size++;
+			set(i, item, score, itemOrder);
+			siftUp(i);
+			return true;
+		}
+
+		//The item arrives after all the kept ones, so with the same score it is worse than the root
+		if(score <= scores[0])
+			return false;
+
+		set(0, item, score, itemOrder);
+		siftDown(0, size);
+		return true;
+	}
+
+	/**
+	 * Orders the kept items from best to worst. No more items must be offered until {@link #clear()}.
+	 */
+	void sort() {
+		//Heapsort: the worst item is moved to the end each time, so the best one ends up first
+		for(int last = size - 1; last > 0; last--) {
+			swap(0, last);
+			siftDown(0, last);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	T getItem(int i) {
+		return (T) items[i];
+	}
+
+	double getScore(int i) {
+		return scores[i];
+	}
+
+	private void set(int i, Object item, double score, int itemOrder) {
+		items[i] = item;
+		scores[i] = score;
+		order[i] = itemOrder;
+	}
+
+	/**
+	 * @return true if the item in position a is worse than the one in position b
+	 */
+	private boolean worse(int a, int b) {
+		if(scores[a] != scores[b])
+			return scores[a] < scores[b];
+		return order[a] > order[b];
+	}
+
+	private void siftUp(int i) {
+		while(i > 0) {
+			int parent = (i - 1) / 2;
+			if(!worse(i, parent))
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int heapSize) {
+		while(true) {
+			int child = 2 * i + 1;
+			if(child >= heapSize)
+				break;
+			if(child + 1 < heapSize && worse(child + 1, child))
+				child++;
+			if(!worse(child, i))
+				break;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int a, int b) {
+		Object item = items[a];
+		items[a] = items[b];
+		items[b] = item;
+
+		double score = scores[a];
+		scores[a] = scores[b];
+		scores[b] = score;
+
+		int itemOrder = order[a];
+		order[a] = order[b];
+		order[b] = itemOrder;
+	}
+}
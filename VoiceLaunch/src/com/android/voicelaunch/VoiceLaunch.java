@@ -1,16 +1,17 @@
 package com.android.voicelaunch;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Locale;
-
-import org.apache.commons.codec.language.Soundex;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import android.content.Intent;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -20,6 +21,7 @@ import android.graphics.Paint.Style;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.speech.RecognizerIntent;
 import android.speech.SpeechRecognizer;
 import android.util.Log;
@@ -32,38 +34,117 @@ import android.widget.RadioGroup;
 import android.widget.SeekBar;
 import android.widget.Toast;
 import net.infobank.android.asrlibs.ASRLib;
+import net.infobank.android.asrlibs.RecognitionSession;
+import net.infobank.android.asrlibs.Trace;
+import net.infobank.android.asrlibs.VoiceActivityDetector;
 import net.infobank.android.ttslibs.TTSLib;
 
 public class VoiceLaunch extends ASRLib {
 	
-	private static final boolean DEBUG = true;
+	private static final boolean DEBUG = BuildConfig.DEBUG;
 	private static final String LOG_TAG = "VoiceLaunch";
 	
-	private enum SimilarityAlgorithm {
-		ORTHOGRAPHIC,
-		PHONETIC
+	//Events of the matching, which are traced instead of logged as there is one per recognition and partial result (see Trace)
+	private static final int TRACE_PARTIAL_MATCH = Trace.FIRST_APP_EVENT;			//Match of partial results started
+	private static final int TRACE_MATCH_CACHED = Trace.FIRST_APP_EVENT + 1;		//Argument: apps found
+	private static final int TRACE_MATCH_HOT_SET = Trace.FIRST_APP_EVENT + 2;		//Argument: apps found
+	private static final int TRACE_MATCH_CATALOG = Trace.FIRST_APP_EVENT + 3;		//Argument: apps found
+	private static final int TRACE_MATCH_SIMILARITY = Trace.FIRST_APP_EVENT + 4;	//Argument: similarity of each app found
+	private static final int TRACE_MATCH_CANCELLED = Trace.FIRST_APP_EVENT + 5;
+	private static final int TRACE_MATCH_PARTIAL_REUSED = Trace.FIRST_APP_EVENT + 6;	//Argument: recognized names matched in the partial results
+	private static final int TRACE_LATENCY_SAVED = Trace.FIRST_APP_EVENT + 7;	//Argument: ms saved by the voice activity detector
+	static {
+		if(Trace.ENABLED) {
+			Trace.nameEvent(TRACE_PARTIAL_MATCH, "PARTIAL_MATCH");
+			Trace.nameEvent(TRACE_MATCH_CACHED, "MATCH_CACHED");
+			Trace.nameEvent(TRACE_MATCH_HOT_SET, "MATCH_HOT_SET");
+			Trace.nameEvent(TRACE_MATCH_CATALOG, "MATCH_CATALOG");
+			Trace.nameEvent(TRACE_MATCH_SIMILARITY, "MATCH_SIMILARITY");
+			Trace.nameEvent(TRACE_MATCH_CANCELLED, "MATCH_CANCELLED");
+			Trace.nameEvent(TRACE_MATCH_PARTIAL_REUSED, "MATCH_PARTIAL_REUSED");
+			Trace.nameEvent(TRACE_LATENCY_SAVED, "LATENCY_SAVED");
+		}
 	}
+	
+	//Similarity engines that can be selected in the GUI, and their radio buttons
+	private static final String[] ENGINE_NAMES = {
+		SimilarityEngines.ORTHOGRAPHIC,
+		SimilarityEngines.BIT_PARALLEL,
+		SimilarityEngines.PHONETIC,
+		SimilarityEngines.JAMO
+	};
+	private static final int[] ENGINE_RADIO_BUTTONS = {
+		R.id.orthographic_radio,
+		R.id.bitparallel_radio,
+		R.id.phonetic_radio,
+		R.id.jamo_radio
+	};
 	private static float DEFAULT_THRESHOLD = 0; //From 0 to 1
-	private static SimilarityAlgorithm DEFAULT_ALGORITHM = SimilarityAlgorithm.ORTHOGRAPHIC;
+	private static int THRESHOLD_STEPS = 10; //The seekbar goes from 0 to 10, as it does not admit decimals
+	private static String DEFAULT_ENGINE = SimilarityEngines.ORTHOGRAPHIC;
+	private static int DEFAULT_MAX_RESULTS = 10; //Number of matching apps shown (the first one is launched)
+	private static int MATCH_CACHE_SIZE = 32; //Number of recent matches kept, as users often repeat the same app names
+	private static double EARLY_ACCEPT_SIMILARITY = 0.9; //If an app of the hot set is this similar, the rest of the apps are not matched
+	private static double HISTORY_PRIOR = 0.05; //Added to the score of the most launched app to rank it, and proportionally to the rest
+	private static final String LAUNCH_HISTORY_FILE_NAME = "launch_history";
+	
+	//Results of recent matches, for the whole process as the index
+	private static final MatchCache sMatchCache = new MatchCache(MATCH_CACHE_SIZE);
+	//Launches of each app, for the whole process. It is created in the UI thread, and loaded in the background thread of the matches
+	private static LaunchHistory sLaunchHistory;
+	//Records the launches in order, off the UI thread. It is not shut down with the activity, as it is usually destroyed right after a launch
+	private static final ExecutorService sHistoryExecutor = Executors.newSingleThreadExecutor();
 	
 	private float similarityThreshold = DEFAULT_THRESHOLD;
-	private SimilarityAlgorithm similarityCalculation = DEFAULT_ALGORITHM;
+	private SimilarityEngine similarityEngine = SimilarityEngines.get(DEFAULT_ENGINE);
+	private int maxResults = DEFAULT_MAX_RESULTS;
 	
 	private TTSLib mTts;
+	private AppIndex mAppIndex;
+	private RecognitionSession mRecognition;	//Last recognition started, null if there has been none
+	
+	//The voice activity detector ignores the prompt played before listening, until it has been spoken
+	private final Runnable mPromptSpoken = new Runnable() {
+		@Override
+		public void run() {
+			resumeVoiceActivityDetection();
+		}
+	};
+	
+	//The apps are matched in a background thread, and the results are posted back to the UI thread with the handler
+	private final ExecutorService mMatchExecutor = Executors.newSingleThreadExecutor();
+	private final Handler mHandler = new Handler();
+	private Future<?> mPendingMatch;	//Match in progress, null if there is none
+	private int mMatchGeneration = 0;	//Incremented when a match is cancelled, so that its results are discarded. Only used in the UI thread
+	//Matches of the partial results of the current recognition, null if there are none. Only used in the UI thread
+	private PartialMatches mPartialMatches;
+	private Future<?> mPartialMatch;				//Match of the last partial results, null if there is none
+	private ArrayList<String> mPartialNBestList;	//Last partial results
+	
+	//Thumbs of the seekbar with each threshold value written on them, rendered once in background. Only used in the UI thread
+	private final BitmapDrawable[] mThumbs = new BitmapDrawable[THRESHOLD_STEPS + 1];
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.voicelaunch);
 		
-		if(DEBUG) Log.d(LOG_TAG, "[VoiceLaunch]indicateListening()...");
+		if(DEBUG) Log.d(LOG_TAG, "[VoiceLaunch]onCreate()...");
 		
 		initializeGUI();
 		
 		createRecognizer(getApplicationContext());
+		//The app names are short, so listening stops as soon as the user is silent instead of waiting for the recognizer
+		setVoiceActivityDetector(new VoiceActivityDetector());
 		
 		mTts = TTSLib.getInstance(this);
 		
+		mAppIndex = AppIndex.getInstance(this);
+		mAppIndex.buildInBackground();
+		
+		if(sLaunchHistory == null)
+			sLaunchHistory = new LaunchHistory(new File(getApplicationContext().getFilesDir(), LAUNCH_HISTORY_FILE_NAME));
+		
 		setSpeakButton();
 	}
 	
@@ -72,18 +153,12 @@ public class VoiceLaunch extends ASRLib {
 	 *************************************************************************************************************************************/
 	private void initializeGUI() {
 		
-		switch (DEFAULT_ALGORITHM) {
-		case ORTHOGRAPHIC:
-			((RadioButton) findViewById(R.id.orthographic_radio)).setChecked(true);
-			break;
-		case PHONETIC:
-			((RadioButton) findViewById(R.id.phonetic_radio)).setChecked(true);
-			break;
-			
-		default:
-			((RadioButton) findViewById(R.id.orthographic_radio)).setChecked(true);
-			break;
+		int defaultButton = R.id.orthographic_radio;
+		for(int i=0; i < ENGINE_NAMES.length; i++) {
+			if(ENGINE_NAMES[i].equals(DEFAULT_ENGINE))
+				defaultButton = ENGINE_RADIO_BUTTONS[i];
 		}
+		((RadioButton) findViewById(defaultButton)).setChecked(true);
 		
 		initializeSeekBar();
 		
@@ -109,13 +184,41 @@ public class VoiceLaunch extends ASRLib {
 			
 			@Override
 			public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-
-				seekT.setThumb(writeOnDrawable(R.drawable.barpointershadow, String.format("%.1f", seekBarValueToFloat(progress))));
+				//The thumbs are reused, so dragging the slider does not decode nor allocate bitmaps.
+				//If they are not rendered yet, the thumb is set when they are
+				if(mThumbs[progress] != null)
+					seekT.setThumb(mThumbs[progress]);
 			}
 		});
 		
-		seekT.setMax(10); //SeekBar does not admit decimals, so instead of having it from 0 to 1, we will use it from 0 to 10
+		seekT.setMax(THRESHOLD_STEPS); //SeekBar does not admit decimals, so instead of having it from 0 to 1, we will use it from 0 to 10
 		seekT.setProgress(floatToSeekBarValue(DEFAULT_THRESHOLD));
+		
+		renderThumbsInBackground(seekT);
+	}
+	
+	/**
+	 * Renders the thumbs for all the threshold values in a background thread, and then sets the one of the current value
+	 */
+	private void renderThumbsInBackground(final SeekBar seekT) {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				String[] texts = new String[THRESHOLD_STEPS + 1];
+				for(int i=0; i <= THRESHOLD_STEPS; i++)
+					texts[i] = String.format("%.1f", seekBarValueToFloat(i));
+				
+				final BitmapDrawable[] thumbs = writeOnDrawables(R.drawable.barpointershadow, texts);
+				
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						System.arraycopy(thumbs, 0, mThumbs, 0, thumbs.length);
+						seekT.setThumb(mThumbs[seekT.getProgress()]);
+					}
+				});
+			}
+		}, LOG_TAG + "-thumbs").start();
 	}
 	
 	/**
@@ -133,22 +236,29 @@ public class VoiceLaunch extends ASRLib {
 	}
 	
 	/**
-	 * Writes a text in a drawable. We will use this method to show the similarity value in the seekbar
+	 * Writes each text in a copy of a drawable. We will use this method to show the similarity values in the seekbar.
+	 * The drawable is decoded only once for all the texts.
 	 *  See stackoverflow http://stackoverflow.com/questions/6264543/draw-on-drawable?rq=1
 	 */
-	private BitmapDrawable writeOnDrawable(int drawableId, String text) {
+	private BitmapDrawable[] writeOnDrawables(int drawableId, String[] texts) {
 		
-		Bitmap bm = BitmapFactory.decodeResource(getResources(), drawableId).copy(Bitmap.Config.ARGB_8888, true);
+		Bitmap background = BitmapFactory.decodeResource(getResources(), drawableId);
 		
 		Paint paint = new Paint();
 		paint.setStyle(Style.FILL);
 		paint.setColor(Color.BLACK);
 		paint.setTextSize(10);
 		
-		Canvas canvas = new Canvas(bm);
-		canvas.drawText(text, bm.getWidth()/4, bm.getHeight()/2, paint);
+		BitmapDrawable[] drawables = new BitmapDrawable[texts.length];
+		for(int i=0; i < texts.length; i++) {
+			Bitmap bm = background.copy(Bitmap.Config.ARGB_8888, true);
+			Canvas canvas = new Canvas(bm);
+			canvas.drawText(texts[i], bm.getWidth()/4, bm.getHeight()/2, paint);
+			drawables[i] = new BitmapDrawable(bm);
+		}
+		background.recycle();
 		
-		return new BitmapDrawable(bm);
+		return drawables;
 	}
 	
 	/**
@@ -178,16 +288,14 @@ public class VoiceLaunch extends ASRLib {
 	}
 	
 	/**
-	 * Reads the values for the similarity threshold and algorithm from the GUI
+	 * Reads the values for the similarity threshold and engine from the GUI
 	 */
 	private void readGUIParameters() {
 		
 		//String selectedThreshold = ((EditText) findViewById(R.id.threshold_editText)).getText().toString();
 		
-		if(DEBUG) Log.d(LOG_TAG, "[VoiceLaunch]readGUIParameters()...");
 		try {
 			similarityThreshold = seekBarValueToFloat(((SeekBar)findViewById(R.id.threshold_seekBar)).getProgress());
-			if(DEBUG) Log.d(LOG_TAG, "[VoiceLaunch]readGUIParameters():similarityThreshold = " + similarityThreshold);
 		} catch (Exception e) {
 			
 			similarityThreshold = DEFAULT_THRESHOLD;
@@ -196,17 +304,17 @@ public class VoiceLaunch extends ASRLib {
 		
 		RadioGroup radioG = (RadioGroup)findViewById(R.id.measure_radioGroup);
 		
-		switch (radioG.getCheckedRadioButtonId()) {
-		case R.id.orthographic_radio:
-			similarityCalculation = SimilarityAlgorithm.ORTHOGRAPHIC;
-			break;
-		case R.id.phonetic_radio:
-			similarityCalculation = SimilarityAlgorithm.PHONETIC;
-			break;
-		default:
-			similarityCalculation = DEFAULT_ALGORITHM;
+		SimilarityEngine selectedEngine = null;
+		for(int i=0; i < ENGINE_RADIO_BUTTONS.length; i++) {
+			if(ENGINE_RADIO_BUTTONS[i] == radioG.getCheckedRadioButtonId())
+				selectedEngine = SimilarityEngines.get(ENGINE_NAMES[i]);
+		}
+		
+		if(selectedEngine != null) {
+			similarityEngine = selectedEngine;
+		} else {
+			similarityEngine = SimilarityEngines.get(DEFAULT_ENGINE);
 			Log.e(LOG_TAG, "The similarity algorithm selected could not be used, using the default algorithm instead");
-			break;
 		}
 	}
 	
@@ -217,12 +325,11 @@ public class VoiceLaunch extends ASRLib {
 	 */
 	private void indicateListening() {
 		
-		if(DEBUG) Log.d(LOG_TAG, "[VoiceLaunch]indicateListening()...");
-		
 		Button button = (Button) findViewById(R.id.speech_btn); //Obtains a reference to the button
 		button.setText(getResources().getString(R.string.speechbtn_listening)); //Changes the button's message to the text obtained from the resources folder
 		button.setBackgroundColor(getResources().getColor(R.color.speechbtn_listening)); //Changes the button's background to the color obtained from the resources folder
-		mTts.speak(getResources().getString(R.string.initial_prompt));
+		holdVoiceActivityDetection();
+		mTts.speak(getResources().getString(R.string.initial_prompt), mPromptSpoken);
 		setListView(new ArrayList<String>()); // clear result list
 	}
 	
@@ -281,104 +388,81 @@ public class VoiceLaunch extends ASRLib {
 	
 	/**
 	 * Obtains a collection with information about the apps which name is similar to what was recognized from the user. The collection is sorted
-	 * from most to least similar.
-	 * @param recognizedName Name of the app recognized from the user input
+	 * from most to least similar, and it contains at most maxResults apps. The apps are compared by the {@link AppMatcher}, unless
+	 * the same names were matched recently with the same parameters and apps (see {@link MatchCache}). The apps launched most often
+	 * are matched first, and if one of them is very similar the rest are not (see {@link LaunchHistory}). The names that were
+	 * already matched in the partial results are not compared with the apps again.
+	 * It is invoked in the background thread of the matches.
+	 * @param matcher compares the apps with the parameters read from the GUI
+	 * @param nBestList Names of the app recognized from the user input, from most to least likely
+	 * @param nBestConfidences Confidences of the recognition results, it may be null
+	 * @param partialMatches matches of the partial results with the same parameters, it may be null
 	 * @return A collection of instances of MyApp. MyApp is an auxiliary class that we have created (see at the bottom of this file), to store
 	 * information about the apps retreived, concretely: name, package name and similarity to recognized name. If no apps are found, it returns
 	 * an empty list.
 	 */
-	private ArrayList<MyApp> getSimilarAppsSorted(String recogizedName) {
-		MyApp app;
-		Double similarity = 0.0;
-		
-		ArrayList<MyApp> similarApps = new ArrayList<MyApp>();
-		
-		PackageManager packageManager = getPackageManager();
-		List<PackageInfo> apps = getPackageManager().getInstalledPackages(0);
-		
-		//For all apps installed in the device...
-		for(int i=0; i < apps.size(); i++) {
-			 PackageInfo packInfo = apps.get(i);
-	            
-            //Gets application name
-            String name = packInfo.applicationInfo.loadLabel(packageManager).toString();
-            
-            //Gets package name
-            String packageName = packInfo.packageName;
-                        
-            //Measures similarity of the app's name with the user input
-            switch(similarityCalculation){       		
-            	case ORTHOGRAPHIC:
-            		similarity = compareOrthographic(normalize(recogizedName), normalize(name));
-            		break;
-            	
-            	case PHONETIC:
-            		similarity = comparePhonetic(normalize(recogizedName), normalize(name));
-            		break;
-            		
-            	default:
-            		similarity = compareOrthographic(normalize(recogizedName), normalize(name)); 
-            		break;	
-            }
-            
-            //Adds the app to the collection if the similarity is higher than the threshold
-            if(similarity > similarityThreshold) {
-                app = new MyApp(name, packageName, similarity);
-            	similarApps.add(app);
-            }
+	private ArrayList<MyApp> getSimilarAppsSorted(AppMatcher matcher, ArrayList<String> nBestList, float[] nBestConfidences,
+			PartialMatches partialMatches) {
+		//The version is read before the apps, so that if they change meanwhile the result is cached for the old version
+		int indexVersion = mAppIndex.getVersion();
+		String cacheKey = matcher.getCacheKey(nBestList, nBestConfidences);
+		
+		TopKSelector<AppEntry> bestApps = sMatchCache.get(cacheKey, indexVersion);
+		if(bestApps != null) {
+			if(Trace.ENABLED) Trace.event(TRACE_MATCH_CACHED, bestApps.size());
+			return toSortedList(bestApps);
 		}
 		
-		//Sorts apps from least to most similar, in order to do this, we use our own comparator,
-        //using the "AppComparator" class, which is defined as a private class at the end of the file
-		Collections.sort(similarApps, new AppComparator());
-		
-		if(DEBUG) {			
-			for(MyApp aux : similarApps) {
-				Log.i(LOG_TAG, "Similarity: "+aux.getSimilarity()+", Name: "+aux.getName()+", Package: "+aux.getPackageName());
+		bestApps = matcher.matchEarly(mAppIndex.getEntries(sLaunchHistory.getHotSet()), EARLY_ACCEPT_SIMILARITY, nBestList, nBestConfidences);
+		if(bestApps != null) {
+			//It depends on the history, so it is not cached
+			if(Trace.ENABLED) Trace.event(TRACE_MATCH_HOT_SET, bestApps.size());
+		} else {
+			HashMap<String, TopKSelector<AppEntry>> knownMatches = (partialMatches == null) ? null : partialMatches.getMatches(indexVersion);
+			if(knownMatches == null || knownMatches.isEmpty()) {
+				bestApps = matcher.match(mAppIndex.getEntries(), mAppIndex.getLabelTree(), mAppIndex.getGramIndex(),
+						nBestList, nBestConfidences);
+			} else {
+				if(Trace.ENABLED) Trace.event(TRACE_MATCH_PARTIAL_REUSED, knownMatches.size());
+				bestApps = matcher.match(mAppIndex.getEntries(), mAppIndex.getLabelTree(), mAppIndex.getGramIndex(),
+						nBestList, nBestConfidences, knownMatches);
 			}
+			if(Trace.ENABLED) Trace.event(TRACE_MATCH_CATALOG, bestApps.size());
+			//A cancelled match may be incomplete, so it is not cached
+			if(!Thread.currentThread().isInterrupted())
+				sMatchCache.put(cacheKey, indexVersion, bestApps);
 		}
 		
-		return similarApps;
+		return toSortedList(bestApps);
 	}
 	
 	/**
-	 * Normalizes a text
-	 * @param text
-	 * @return the input text without spaces and in lower case
+	 * Creates the list of apps from the ones kept by the selector, which are already sorted from most to least similar.
+	 * Then the apps launched more often are moved up, with a bonus of up to {@link #HISTORY_PRIOR} (the similarities are not changed).
+	 * Their launch intents are resolved here, in the background thread, so launching the best one is only a cache lookup
 	 */
-	private String normalize(String text){
-		return text.trim().toLowerCase(Locale.KOREA);
-	}
-	
-	/**
-	 * Compares the names using the Levenshtein distance, which is the minimal number of characters you have to replace, 
-	 * insert or delete to transform string a into string b.
-	 * We have used a computation of this distance provided by Wikipedia.
-	 * @return similarity from 0 (minimum) to 1 (maximum)
-	 */
-	private double compareOrthographic(String a, String b){
-		return LevenshteinDistance.computeLevenshteinDistance(a, b);
-	}
-	
-	/**
-	 * Compares the names using their phonetic similarity, using the soundex algorithm.
-	 * We have used an implementation of this algorithm provided by Apache.
-	 * Attention: it only works for English
-	 */
-	private double comparePhonetic(String recognizedApp, String nameApp){		
-	    Soundex soundex = new Soundex();
-	    
-	    //Returns the number of characters in the two encoded Strings that are the same. 
-	    //This return value ranges from 0 to the length of the shortest encoded String: 0 indicates little or no similarity, 
-	    //and 4 out of 4 (for example) indicates strong similarity or identical values. 
-	    double sim=0;
-		try {
-			sim = soundex.difference(recognizedApp, nameApp);
-		} catch (Exception e) {
-			Log.e(LOG_TAG, "Error during soundex encoding. Similarity forced to 0");
-			sim = 0;
+	private ArrayList<MyApp> toSortedList(TopKSelector<AppEntry> bestApps) {
+		ArrayList<MyApp> similarApps = new ArrayList<MyApp>(bestApps.size());
+		for(int i=0; i < bestApps.size(); i++) {
+			AppEntry entry = bestApps.getItem(i);
+			double rankScore = bestApps.getScore(i) + HISTORY_PRIOR * sLaunchHistory.getFrequency(entry.getPackageName());
+			similarApps.add(new MyApp(entry, bestApps.getScore(i), rankScore, mAppIndex.isLaunchable(entry)));
 		}
-	    return sim/4;
+		//The sort is stable, so apps with the same score keep their order
+		Collections.sort(similarApps, new Comparator<MyApp>() {
+			@Override
+			public int compare(MyApp a, MyApp b) {
+				return Double.compare(b.getRankScore(), a.getRankScore());
+			}
+		});
+		
+		if(Trace.ENABLED) {
+			for(MyApp aux : similarApps) {
+				Trace.event(TRACE_MATCH_SIMILARITY, (float) aux.getSimilarity());
+			}
+		}
+		
+		return similarApps;
 	}
 	
 	/*************************************************************************************************************************************
@@ -393,12 +477,13 @@ public class VoiceLaunch extends ASRLib {
 	 */
 	private void startListeningForApps() {
 		
-		if(DEBUG) Log.d(LOG_TAG, "[VoiceLaunch]startListeningForApps()...");
+		//The results of a previous recognition must not launch an app anymore
+		cancelPendingMatch();
 		
 		try{
 			indicateListening();
-			//Recognition model = Free form, Number of results = 1 (we will use the best result to perform the search)
-			listen(RecognizerIntent.LANGUAGE_MODEL_FREE_FORM, 1); //Start listening
+			//Recognition model = Free form, Number of results = MAX_HYPOTHESES (all of them are used to perform the search)
+			mRecognition = listen(RecognizerIntent.LANGUAGE_MODEL_FREE_FORM, AppMatcher.MAX_HYPOTHESES); //Start listening
 		} catch (Exception e) {
 			Toast toast = Toast.makeText(getApplicationContext(),"ASR could not be started: invalid params", Toast.LENGTH_SHORT);
 			toast.show();
@@ -409,42 +494,178 @@ public class VoiceLaunch extends ASRLib {
 	}
 	
 	/**
-	 * When recognition is successful, it obtains the best recognition result (supposedly the name of an app),
-	 * and sorts all apps installed on the device according to the similarity of their names to the one recognized
+	 * When recognition is successful, it obtains the recognition results (supposedly the name of an app),
+	 * and sorts all apps installed on the device according to the similarity of their names to the ones recognized
 	 * (considering only the ones similar above a threshold).
 	 * Then, it launches the app with highest similarity. If the similarities are all bellow the defined threshold, no app is launched and the user
 	 * gets a feedback message in a Toast
 	 */
 	@Override
 	public void processAsrResults(ArrayList<String> nBestList, float[] nBestConfidences) {
-		if(DEBUG) Log.d(LOG_TAG, "[VoiceLaunch]processAsrResults()...");
+		if(Trace.ENABLED && mRecognition != null && mRecognition.getLatencySavedMs() >= 0)
+			Trace.event(TRACE_LATENCY_SAVED, (int) mRecognition.getLatencySavedMs());
 			
 		if(nBestList != null){
 			if(nBestList.size() > 0){
-				// 최적의 음성 인식 결과를 획득
-				String bestResult = nBestList.get(0);
-				if(DEBUG) Log.d(LOG_TAG, "[VoiceLaunch]processAsrResults():bestResult = " + bestResult);
-				
 				//GUI에서 얻은 유사도 파라미터에서 값을 읽음
 				readGUIParameters();
 		        
-				//사용자 입력으로 내림차순의 유사도를 가진 앱 이름을 획득
-				//String[] = [0] = name, [1] = package, [2] = similarity
-				ArrayList<MyApp> sortedApps = getSimilarAppsSorted(bestResult);  
+				//사용자 입력으로 내림차순의 유사도를 가진 앱 이름을 획득 (백그라운드 스레드에서)
+				startMatching(nBestList, nBestConfidences);
+			}
+		}
+	}
+	
+	/**
+	 * Matches the recognition results with the apps in a background thread, so that the UI thread is not blocked
+	 * while the catalog is scanned. The results are processed in the UI thread with {@link #processMatchingApps(ArrayList)},
+	 * unless the match is cancelled before (see {@link #cancelPendingMatch()}).
+	 */
+	private void startMatching(final ArrayList<String> nBestList, final float[] nBestConfidences) {
+		//The matches of the partial results are reused if they were computed with the same parameters. If the last one is still
+		//running and the final results include one of its names, it goes on, as its match will be reused
+		final PartialMatches partialMatches = (mPartialMatches != null && mPartialMatches.isFor(similarityEngine, similarityThreshold, maxResults))
+				? mPartialMatches : null;
+		if(partialMatches != null && mPartialNBestList != null && !Collections.disjoint(mPartialNBestList, nBestList))
+			mPartialMatch = null; //So that it is not cancelled
+		cancelPendingMatch();
+		
+		//The parameters are read from the GUI in the UI thread, the matcher only keeps their values
+		final AppMatcher matcher = new AppMatcher(similarityEngine, similarityThreshold, maxResults);
+		final int generation = mMatchGeneration;
+		
+		mPendingMatch = mMatchExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				ArrayList<MyApp> sortedApps;
+				try {
+					sortedApps = getSimilarAppsSorted(matcher, nBestList, nBestConfidences, partialMatches);
+				} catch (RuntimeException e) {
+					Log.e(LOG_TAG, "Error while matching the apps", e);
+					return;
+				}
+				if(Thread.currentThread().isInterrupted())
+					return; //Cancelled, the result may be incomplete
 				
-				//목록에 있는 매칭되는 앱 이름과 유사도 값을 표시
-				showMatchingNames(sortedApps);
-				        
-				//가장 잘 매칭되는 앱을 실행(즉 하나라도 존재하면 실행)
-				if(sortedApps.size() <= 0)
-				{
-					Toast toast = Toast.makeText(getApplicationContext(),"No app found with sufficiently similar name", Toast.LENGTH_SHORT);
-					toast.show();
-					Log.e(LOG_TAG, "No app has a name with similarity > "+similarityThreshold);
-				} else {					
-					launchApp(sortedApps.get(0));
+				final ArrayList<MyApp> result = sortedApps;
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						//A newer recognition may have started after the result was posted
+						if(generation != mMatchGeneration)
+							return;
+						mPendingMatch = null;
+						processMatchingApps(result);
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Starts matching the partial recognition results with the apps in the background thread, while the user is still speaking.
+	 * The result is not shown: each recognized name is matched alone, and the final match combines the names that were
+	 * already matched instead of comparing them with the apps again (see {@link #startMatching(ArrayList, float[])}).
+	 * A new partial result cancels the match of the previous one.
+	 */
+	@Override
+	public void processAsrPartialResults(ArrayList<String> partialNBestList) {
+		readGUIParameters();
+		
+		//Partial results are often repeated, and there is no need to match them again
+		if(mPartialNBestList != null && mPartialNBestList.equals(partialNBestList))
+			return;
+		if(mPartialMatch != null)
+			mPartialMatch.cancel(true);
+		if(mPartialMatches == null || !mPartialMatches.isFor(similarityEngine, similarityThreshold, maxResults))
+			mPartialMatches = new PartialMatches(similarityEngine, similarityThreshold, maxResults);
+		
+		if(Trace.ENABLED) Trace.event(TRACE_PARTIAL_MATCH);
+		
+		final AppMatcher matcher = new AppMatcher(similarityEngine, similarityThreshold, maxResults);
+		final PartialMatches partialMatches = mPartialMatches;
+		final ArrayList<String> nBestList = new ArrayList<String>(partialNBestList);
+		mPartialMatch = mMatchExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					matchPartialResults(matcher, partialMatches, nBestList);
+				} catch (RuntimeException e) {
+					Log.e(LOG_TAG, "Error while matching the partial results", e);
 				}
 			}
+		});
+		mPartialNBestList = nBestList;
+	}
+	
+	/**
+	 * Matches each name of the partial results alone, unless it was already matched, and keeps the matches.
+	 * It is invoked in the background thread of the matches.
+	 */
+	private void matchPartialResults(AppMatcher matcher, PartialMatches partialMatches, ArrayList<String> nBestList) {
+		//The version is read before the apps, as in getSimilarAppsSorted
+		HashMap<String, TopKSelector<AppEntry>> matches = partialMatches.getMatches(mAppIndex.getVersion());
+		for(String name : nBestList) {
+			String query = AppMatcher.normalize(name);
+			if(matches.containsKey(query))
+				continue;
+			
+			ArrayList<String> single = new ArrayList<String>(1);
+			single.add(name);
+			TopKSelector<AppEntry> match = matcher.match(mAppIndex.getEntries(), mAppIndex.getLabelTree(), mAppIndex.getGramIndex(), single, null);
+			//A cancelled match may be incomplete, so it is not kept
+			if(Thread.currentThread().isInterrupted())
+				return;
+			matches.put(query, match);
+		}
+	}
+	
+	/**
+	 * Cancels the match in progress and the one of the partial results, if there are, and discards the matches of the
+	 * partial results. Their results will not be shown, and their apps will not be launched. It must be invoked in the UI thread.
+	 */
+	private void cancelPendingMatch() {
+		if(mPartialMatch != null) {
+			mPartialMatch.cancel(true);
+			mPartialMatch = null;
+		}
+		mPartialMatches = null;
+		mPartialNBestList = null;
+		
+		mMatchGeneration++;
+		if(mPendingMatch != null) {
+			mPendingMatch.cancel(true);
+			mPendingMatch = null;
+			if(Trace.ENABLED) Trace.event(TRACE_MATCH_CANCELLED);
+		}
+	}
+	
+	/**
+	 * Shows the matching apps and launches the most similar one. It is invoked in the UI thread when the match finishes.
+	 */
+	private void processMatchingApps(ArrayList<MyApp> sortedApps) {
+		//목록에 있는 매칭되는 앱 이름과 유사도 값을 표시
+		showMatchingNames(sortedApps);
+		        
+		//가장 잘 매칭되는 앱을 실행(즉 하나라도 존재하면 실행). Apps that cannot be launched are skipped
+		MyApp bestApp = null;
+		for(MyApp app : sortedApps) {
+			if(app.isLaunchable()) {
+				bestApp = app;
+				break;
+			}
+		}
+		
+		if(sortedApps.size() <= 0)
+		{
+			Toast toast = Toast.makeText(getApplicationContext(),"No app found with sufficiently similar name", Toast.LENGTH_SHORT);
+			toast.show();
+			Log.e(LOG_TAG, "No app has a name with similarity > "+similarityThreshold);
+		} else if(bestApp == null) {
+			Toast.makeText(getApplicationContext(), "None of the matching apps can be launched", Toast.LENGTH_SHORT).show();
+			Log.e(LOG_TAG, "None of the matching apps has a launch intent");
+		} else {					
+			launchApp(bestApp);
 		}
 	}
 	
@@ -454,13 +675,15 @@ public class VoiceLaunch extends ASRLib {
 	 */
 	private void launchApp(MyApp app) {
 		
-		Intent launchApp = this.getPackageManager().getLaunchIntentForPackage(app.getPackageName());
+		//The launch intent was already resolved when the app was matched, so it is taken from the cache of the index
+		Intent launchApp = mAppIndex.getLaunchIntent(app.getEntry());
 		
 		if (null != launchApp) {
 		    try {  
 		    	indicateLaunch(app.getName());
 		    	Log.i(LOG_TAG, "Launching "+app.getName());
 		    	startActivity(launchApp);
+		    	recordLaunchInBackground(app.getPackageName());
 		    	//VoiceLaunch.this.finish();
 		    } catch (Exception e) {  
 		    	Toast.makeText(getBaseContext(), app.getName()+" could not be launched", Toast.LENGTH_LONG).show(); //Show user-friendly name
@@ -469,6 +692,22 @@ public class VoiceLaunch extends ASRLib {
 		}
 	}
 	
+	/**
+	 * Adds the launch to the history in {@link #sHistoryExecutor}, as the history may have to be loaded and written
+	 */
+	private void recordLaunchInBackground(final String packageName) {
+		sHistoryExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sLaunchHistory.recordLaunch(packageName);
+				} catch (IOException e) {
+					Log.e(LOG_TAG, "The launch could not be recorded: " + e.getMessage());
+				}
+			}
+		});
+	}
+	
 	@Override
 	public void processAsrReadyForSpeech() {
 		// TODO Auto-generated method stub
@@ -535,6 +774,8 @@ public class VoiceLaunch extends ASRLib {
 	protected void onDestroy() {
 
 		super.onDestroy();
+		cancelPendingMatch();
+		mMatchExecutor.shutdownNow();
 		mTts.shutdown();
 	}
 
@@ -542,43 +783,81 @@ public class VoiceLaunch extends ASRLib {
 	/***************************************************************************************************************************
 	 * Auxiliary classes
 	***************************************************************************************************************************/
+	/**
+	 * Matches of the names recognized in the partial results of a recognition, each one alone, with the parameters they
+	 * were computed with. Once created, the matches are only used in the background thread of the matches.
+	 */
+	private static class PartialMatches {
+		final SimilarityEngine engine;
+		final float threshold;
+		final int maxResults;
+		private final HashMap<String, TopKSelector<AppEntry>> byName = new HashMap<String, TopKSelector<AppEntry>>();	//By normalized name
+		private int indexVersion = -1;	//Version of the index the matches were computed for
+		
+		PartialMatches(SimilarityEngine engine, float threshold, int maxResults) {
+			this.engine = engine;
+			this.threshold = threshold;
+			this.maxResults = maxResults;
+		}
+		
+		/**
+		 * @return true if the matches were computed with these parameters
+		 */
+		boolean isFor(SimilarityEngine otherEngine, float otherThreshold, int otherMaxResults) {
+			return engine == otherEngine && threshold == otherThreshold && maxResults == otherMaxResults;
+		}
+		
+		/**
+		 * @return the matches by normalized name, for this version of the index. The ones computed for another version are discarded
+		 */
+		HashMap<String, TopKSelector<AppEntry>> getMatches(int version) {
+			if(version != indexVersion) {
+				byName.clear();
+				indexVersion = version;
+			}
+			return byName;
+		}
+	}
+	
 	/**
 	 * Represents each app to be considered for launching.
 	 */
 	private class MyApp {
-		private String name;		//User-friendly name
-		private String packageName;	//Full name
+		private AppEntry entry;		//Indexed app: user-friendly name, package name and launch intent
 		private double similarity;	//Similarity of its user-friendly name with the recognized input
+		private double rankScore;	//Similarity plus the bonus for the launches of the app, used to sort the apps
+		private boolean launchable;	//True if it has a launch intent
 		
-		MyApp(String name, String packageName, double similarity) {
+		MyApp(AppEntry entry, double similarity, double rankScore, boolean launchable) {
 			
-			this.name = name;
-			this.packageName = packageName;
+			this.entry = entry;
 			this.similarity = similarity;
+			this.rankScore = rankScore;
+			this.launchable = launchable;
+		}
+		
+		AppEntry getEntry() {
+			return entry;
 		}
 		
 		String getName() {
-			return name;
+			return entry.getName();
 		}
 		
 		String getPackageName() {
-			return packageName;
+			return entry.getPackageName();
 		}
 		
 		double getSimilarity() {
 			return similarity;
 		}
-	}
-	
-	/**
-	 * Comparator for apps considering the similarity of their names to the recognized input.
-	 */
-	private class AppComparator implements Comparator<MyApp> {
-
-		@Override
-		public int compare(MyApp app1, MyApp app2) {
-
-			return (- Double.compare(app1.getSimilarity(), app2.getSimilarity())); // Multiply by -1 to get reverse ordering (from most to least similar)
+		
+		double getRankScore() {
+			return rankScore;
+		}
+		
+		boolean isLaunchable() {
+			return launchable;
 		}
 	}
 }
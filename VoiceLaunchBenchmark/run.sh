@@ -0,0 +1,35 @@
+#!/bin/sh
+# Builds and runs the JMH benchmarks of the VoiceLaunch matching code on a plain JVM.
+#
+# Only the sources of VoiceLaunch that do not use the Android framework are compiled, together with the
+# benchmarks in src/. JMH is not included in the repository: JMH_LIBS must be a directory with the jars of
+# jmh-core, jmh-generator-annprocess and their dependencies (jopt-simple, commons-math3).
+#
+# Usage: JMH_LIBS=/path/to/jmh ./run.sh [JMH options]
+# e.g.   JMH_LIBS=~/jmh ./run.sh MatchingBenchmark -p catalogSize=10000 -p script=HANGUL
+#
+# The allocation rate is reported by the GC profiler (-prof gc), which is always enabled.
+
+set -e
+
+BENCHMARK_DIR=$(cd "$(dirname "$0")" && pwd)
+VOICELAUNCH_DIR="$BENCHMARK_DIR/../VoiceLaunch"
+BUILD_DIR="$BENCHMARK_DIR/build"
+
+if [ -z "$JMH_LIBS" ] || [ ! -d "$JMH_LIBS" ]; then
+	echo "JMH_LIBS must be the directory with the JMH jars" >&2
+	exit 1
+fi
+
+CLASSPATH="$VOICELAUNCH_DIR/libs/commons-codec-1.8.jar"
+for jar in "$JMH_LIBS"/*.jar; do
+	CLASSPATH="$CLASSPATH:$jar"
+done
+
+SOURCES=$(grep -L "^import android\." "$VOICELAUNCH_DIR"/src/com/android/voicelaunch/*.java)
+
+rm -rf "$BUILD_DIR"
+mkdir -p "$BUILD_DIR"
+javac -encoding UTF-8 -d "$BUILD_DIR" -cp "$CLASSPATH" $SOURCES "$BENCHMARK_DIR"/src/com/android/voicelaunch/*.java
+
+java -cp "$BUILD_DIR:$CLASSPATH" org.openjdk.jmh.Main -prof gc "$@"
@@ -0,0 +1,67 @@
+package com.android.voicelaunch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares a recognized name with every label of a synthetic catalog, with the Levenshtein implementations
+ * used by the orthographic engines. Each operation is a whole scan of the catalog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevenshteinBenchmark {
+
+	@Param({"100", "1000", "10000", "100000"})
+	int catalogSize;
+
+	@Param({"LATIN", "HANGUL", "MIXED"})
+	String script;
+
+	@Param({"0.0", "0.5", "0.8"})
+	double threshold;
+
+	private String[] labels;
+	private String query;
+	private BitParallelLevenshtein pattern;
+
+	@Setup
+	public void setUp() {
+		SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.Script.valueOf(script), 42);
+		AppEntry[] apps = catalog.createApps(catalogSize);
+
+		labels = new String[apps.length];
+		for(int i=0; i < apps.length; i++)
+			labels[i] = apps[i].getNormalizedName();
+
+		query = AppMatcher.normalize(catalog.createNBestList(apps, 1).get(0));
+		pattern = new BitParallelLevenshtein(query);
+	}
+
+	@Benchmark
+	public void computeLevenshteinDistance(Blackhole blackhole) {
+		for(String label : labels)
+			blackhole.consume(LevenshteinDistance.computeLevenshteinDistance(query, label, threshold));
+	}
+
+	@Benchmark
+	public void bitParallel(Blackhole blackhole) {
+		for(String label : labels)
+			blackhole.consume(pattern.computeSimilarity(label, threshold));
+	}
+}
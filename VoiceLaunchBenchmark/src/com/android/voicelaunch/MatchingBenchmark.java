@@ -0,0 +1,82 @@
+package com.android.voicelaunch;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the whole matching of a recognition result, as VoiceLaunch does when the recognizer returns:
+ * the N-best list is prepared and compared with a synthetic catalog, and the best apps are sorted.
+ *
+ * The filters of the {@link MatchCascade} can be selected with the <code>filters</code> parameter, and the number
+ * of comparisons pruned by each one is printed at the end of each trial, to tune the cascade.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchingBenchmark {
+
+	private static final int MAX_RESULTS = 10;
+	private static final float[] CONFIDENCES = {0.9f, 0.6f, 0.4f, 0.2f, 0.1f};
+
+	@Param({"100", "1000", "10000", "100000"})
+	int catalogSize;
+
+	@Param({"LATIN", "HANGUL", "MIXED"})
+	String script;
+
+	@Param({"0.0", "0.5", "0.8"})
+	double threshold;
+
+	@Param({SimilarityEngines.ORTHOGRAPHIC, SimilarityEngines.BIT_PARALLEL, SimilarityEngines.PHONETIC, SimilarityEngines.JAMO})
+	String engine;
+
+	@Param({"length,histogram", "length", "none"})
+	String filters;
+
+	private AppEntry[] apps;
+	private BKTree labelTree;
+	private NGramIndex gramIndex;
+	private ArrayList<String> nBestList;
+	private AppMatcher matcher;
+
+	@Setup
+	public void setUp() {
+		SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.Script.valueOf(script), 42);
+		apps = catalog.createApps(catalogSize);
+		labelTree = SyntheticCatalog.createLabelTree(apps);
+		gramIndex = new NGramIndex(apps, NGramIndex.DEFAULT_GRAM_LENGTH);
+		nBestList = catalog.createNBestList(apps, AppMatcher.MAX_HYPOTHESES);
+		MatchCascade cascade = new MatchCascade(filters.contains("length"), filters.contains("histogram"));
+		matcher = new AppMatcher(SimilarityEngines.get(engine), threshold, MAX_RESULTS, cascade);
+	}
+
+	@TearDown
+	public void printCascade() {
+		MatchCascade cascade = matcher.getCascade();
+		long compared = Math.max(1, cascade.getCompared());
+		System.out.printf("%nCascade: %s (%.1f%% pruned by length, %.1f%% by histogram, %.1f%% scored)%n", cascade,
+				100.0 * cascade.getPrunedByLength() / compared, 100.0 * cascade.getPrunedByHistogram() / compared,
+				100.0 * cascade.getScored() / compared);
+	}
+
+	@Benchmark
+	public TopKSelector<AppEntry> match() {
+		return matcher.match(apps, labelTree, gramIndex, nBestList, CONFIDENCES);
+	}
+}
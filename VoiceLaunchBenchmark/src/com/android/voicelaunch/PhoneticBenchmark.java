@@ -0,0 +1,60 @@
+package com.android.voicelaunch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the Soundex code of a recognized name with every label of a synthetic catalog. Each operation is
+ * a whole scan of the catalog, either with the codes cached in the entries or encoding every label again.
+ * Labels that cannot be encoded (e.g. Hangul) are included, as they are on a real device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhoneticBenchmark {
+
+	@Param({"100", "1000", "10000", "100000"})
+	int catalogSize;
+
+	@Param({"LATIN", "HANGUL", "MIXED"})
+	String script;
+
+	private AppEntry[] apps;
+	private String query;
+
+	@Setup
+	public void setUp() {
+		SyntheticCatalog catalog = new SyntheticCatalog(SyntheticCatalog.Script.valueOf(script), 42);
+		apps = catalog.createApps(catalogSize);
+		query = AppMatcher.normalize(catalog.createNBestList(apps, 1).get(0));
+	}
+
+	@Benchmark
+	public void cachedCodes(Blackhole blackhole) {
+		String queryCode = PhoneticCode.encode(query);
+		for(AppEntry app : apps)
+			blackhole.consume(PhoneticCode.similarity(queryCode, app.getPhoneticCode()));
+	}
+
+	@Benchmark
+	public void encodeEveryLabel(Blackhole blackhole) {
+		String queryCode = PhoneticCode.encode(query);
+		for(AppEntry app : apps)
+			blackhole.consume(PhoneticCode.similarity(queryCode, PhoneticCode.encode(app.getNormalizedName())));
+	}
+}
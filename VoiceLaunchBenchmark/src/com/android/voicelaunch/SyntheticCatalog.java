@@ -0,0 +1,130 @@
+package com.android.voicelaunch;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Generates catalogs of fake apps for the benchmarks, so that they do not depend on the apps of a device.
+ *
+ * The labels are built from words that usually appear in app names, plus random syllables, in the given script.
+ * The recognized names are labels of the catalog with some characters replaced, as a recognizer would give them.
+ * The same seed always gives the same catalog and the same recognition results.
+ */
+class SyntheticCatalog {
+
+	/**
+	 * Script of the labels
+	 */
+	enum Script {
+		LATIN,		//Only Latin letters
+		HANGUL,		//Only Hangul syllables
+		MIXED		//Both, in different labels and sometimes in the same one
+	}
+
+	private static final String[] LATIN_WORDS = {
+		"camera", "calendar", "music", "maps", "mail", "photos", "settings", "weather", "clock", "notes",
+		"calculator", "contacts", "messages", "browser", "gallery", "player", "radio", "news", "shop", "bank",
+		"translate", "drive", "keep", "fit", "play", "store", "video", "chat", "talk", "games"
+	};
+
+	private static final String[] HANGUL_WORDS = {
+		"카메라", "캘린더", "음악", "지도", "메일", "사진", "설정", "날씨", "시계", "메모",
+		"계산기", "연락처", "메시지", "인터넷", "갤러리", "플레이어", "라디오", "뉴스", "쇼핑", "은행",
+		"번역", "드라이브", "게임", "동영상", "채팅", "톡", "스토어", "카드", "증권", "배달"
+	};
+
+	private static final String LATIN_LETTERS = "abcdefghijklmnopqrstuvwxyz";
+	private static final char SYLLABLE_FIRST = 0xAC00;	//가
+	private static final int SYLLABLES = 11172;
+
+	private final Random random;
+	private final Script script;
+
+	SyntheticCatalog(Script script, long seed) {
+		this.script = script;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @return <code>size</code> apps with labels of one to three words
+	 */
+	AppEntry[] createApps(int size) {
+		AppEntry[] apps = new AppEntry[size];
+		for(int i=0; i < size; i++) {
+			apps[i] = new AppEntry(createLabel(), "com.example.app" + i);
+		}
+		return apps;
+	}
+
+	/**
+	 * @return a BK-tree with the apps, as the index would have it
+	 */
+	static BKTree createLabelTree(AppEntry[] apps) {
+		BKTree tree = new BKTree();
+		for(AppEntry app : apps)
+			tree.add(app);
+		return tree;
+	}
+
+	/**
+	 * Creates the N-best list of a recognition of one of the apps: the best hypothesis has one wrong character,
+	 * and each of the following ones has one more
+	 */
+	ArrayList<String> createNBestList(AppEntry[] apps, int hypotheses) {
+		String name = apps[random.nextInt(apps.length)].getName();
+
+		ArrayList<String> nBestList = new ArrayList<String>(hypotheses);
+		for(int h=0; h < hypotheses; h++) {
+			nBestList.add(misrecognize(name, h + 1));
+		}
+		return nBestList;
+	}
+
+	private String createLabel() {
+		int words = 1 + random.nextInt(3);
+		boolean hangul = script == Script.HANGUL || (script == Script.MIXED && random.nextBoolean());
+
+		StringBuilder label = new StringBuilder();
+		for(int w=0; w < words; w++) {
+			if(w > 0)
+				label.append(' ');
+			//In mixed catalogs some labels combine both scripts, e.g. "네이버 maps"
+			if(script == Script.MIXED && random.nextInt(4) == 0)
+				hangul = !hangul;
+			label.append(createWord(hangul));
+		}
+		return label.toString();
+	}
+
+	private String createWord(boolean hangul) {
+		String[] words = hangul ? HANGUL_WORDS : LATIN_WORDS;
+		if(random.nextBoolean())
+			return words[random.nextInt(words.length)];
+
+		//Invented brand names, so that not all labels share the same few words
+		int length = hangul ? 2 + random.nextInt(3) : 4 + random.nextInt(6);
+		char[] word = new char[length];
+		for(int i=0; i < length; i++)
+			word[i] = randomChar(hangul);
+		return new String(word);
+	}
+
+	private char randomChar(boolean hangul) {
+		if(hangul)
+			return (char) (SYLLABLE_FIRST + random.nextInt(SYLLABLES));
+		return LATIN_LETTERS.charAt(random.nextInt(LATIN_LETTERS.length()));
+	}
+
+	/**
+	 * @return the name with <code>errors</code> characters replaced by others of the same script
+	 */
+	private String misrecognize(String name, int errors) {
+		char[] chars = name.toCharArray();
+		for(int e=0; e < errors && chars.length > 0; e++) {
+			int i = random.nextInt(chars.length);
+			if(chars[i] != ' ')
+				chars[i] = randomChar(chars[i] >= SYLLABLE_FIRST);
+		}
+		return new String(chars);
+	}
+}
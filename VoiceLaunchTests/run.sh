@@ -0,0 +1,24 @@
+#!/bin/sh
+# Builds and runs the tests of the VoiceLaunch matching code on a plain JVM.
+#
+# Only the sources of VoiceLaunch that do not use the Android framework are compiled, together with the
+# tests in src/. Each test is a class with a main method, which exits with an error when a check fails.
+#
+# Usage: ./run.sh
+
+set -e
+
+TESTS_DIR=$(cd "$(dirname "$0")" && pwd)
+VOICELAUNCH_DIR="$TESTS_DIR/../VoiceLaunch"
+BUILD_DIR="$TESTS_DIR/build"
+CLASSPATH="$VOICELAUNCH_DIR/libs/commons-codec-1.8.jar"
+
+SOURCES=$(grep -L "^import android\." "$VOICELAUNCH_DIR"/src/com/android/voicelaunch/*.java)
+
+rm -rf "$BUILD_DIR"
+mkdir -p "$BUILD_DIR"
+javac -encoding UTF-8 -d "$BUILD_DIR" -cp "$CLASSPATH" $SOURCES "$TESTS_DIR"/src/com/android/voicelaunch/*.java
+
+for test in "$TESTS_DIR"/src/com/android/voicelaunch/*Test.java; do
+	java -ea -cp "$BUILD_DIR:$CLASSPATH" com.android.voicelaunch.$(basename "$test" .java)
+done
@@ -0,0 +1,109 @@
+package com.android.voicelaunch;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that searching the BK-tree finds the same apps as comparing all of them, in particular at the thresholds
+ * where the similarity of a label is equal to the threshold up to the rounding of floating point.
+ */
+public class BKTreeTest {
+
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+	public static void main(String[] args) {
+		testBoundaryRadius();
+		testBoundaryLabels();
+		testRandomCatalog();
+		System.out.println("BKTreeTest passed");
+	}
+
+	/**
+	 * Labels of length |query| + d at distance d, whose similarity is just above the threshold after rounding,
+	 * must be within the search radius
+	 */
+	private static void testBoundaryRadius() {
+		for(int queryLength=0; queryLength <= 40; queryLength++) {
+			for(int t=1; t < 1000; t++) {
+				double threshold = t / 1000.0;
+				int radius = BKTree.searchRadius(queryLength, threshold);
+				for(int distance=radius + 1; distance <= radius + 3; distance++) {
+					double similarity = 1 - (double) distance / (queryLength + distance);
+					check(!(similarity > threshold), "label at distance " + distance + " out of the radius " + radius
+							+ " for a query of length " + queryLength + " and threshold " + threshold);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The cases where the rounding made the search miss an app found by comparing all of them. The first app is the root
+	 * of the tree, which is always compared, so the app at the boundary is only found if its branch is not pruned
+	 */
+	private static void testBoundaryLabels() {
+		int[][] cases = { {3, 7}, {6, 14}, {12, 28} };	//Length of the query and distance to the label
+		for(int[] c : cases) {
+			String query = LETTERS.substring(0, c[0]);
+			String label = query + repeat('z', c[1]);
+			AppEntry[] apps = { new AppEntry(query, "com.example.root"), new AppEntry(label, "com.example.boundary") };
+			compareMatches(apps, Arrays.asList(query), null, 0.3);
+		}
+	}
+
+	/**
+	 * Random labels and queries, with several hypotheses so that the threshold is divided by their weights
+	 */
+	private static void testRandomCatalog() {
+		Random random = new Random(7);
+		AppEntry[] apps = new AppEntry[500];
+		for(int i=0; i < apps.length; i++)
+			apps[i] = new AppEntry(randomText(random, 1 + random.nextInt(20)), "com.example.app" + i);
+
+		for(int i=0; i < 300; i++) {
+			List<String> nBestList = Arrays.asList(randomText(random, 1 + random.nextInt(12)),
+					randomText(random, 1 + random.nextInt(12)), apps[random.nextInt(apps.length)].getName());
+			float[] confidences = { 0.9f, random.nextFloat() * 0.9f, random.nextFloat() * 0.9f };
+			double threshold = random.nextInt(20) / 20.0;
+			compareMatches(apps, nBestList, confidences, threshold);
+		}
+	}
+
+	/**
+	 * Matches the recognition results with and without the BK-tree, and checks that the results are the same
+	 */
+	private static void compareMatches(AppEntry[] apps, List<String> nBestList, float[] confidences, double threshold) {
+		BKTree labelTree = new BKTree();
+		for(AppEntry app : apps)
+			labelTree.add(app);
+
+		AppMatcher matcher = new AppMatcher(SimilarityEngines.get(SimilarityEngines.ORTHOGRAPHIC), threshold, apps.length);
+		TopKSelector<AppEntry> expected = matcher.match(apps, null, null, nBestList, confidences);
+		TopKSelector<AppEntry> found = matcher.match(apps, labelTree, null, nBestList, confidences);
+
+		String description = nBestList + " with threshold " + threshold;
+		check(found.size() == expected.size(), description + ": " + found.size() + " apps instead of " + expected.size());
+		for(int i=0; i < expected.size(); i++) {
+			check(found.getItem(i) == expected.getItem(i) && found.getScore(i) == expected.getScore(i),
+					description + ": different app at position " + i);
+		}
+	}
+
+	private static String randomText(Random random, int length) {
+		char[] text = new char[length];
+		for(int i=0; i < length; i++)
+			text[i] = LETTERS.charAt(random.nextInt(6));	//Few letters, so that there are similar labels
+		return new String(text);
+	}
+
+	private static String repeat(char c, int times) {
+		char[] text = new char[times];
+		Arrays.fill(text, c);
+		return new String(text);
+	}
+
+	private static void check(boolean condition, String message) {
+		if(!condition)
+			throw new AssertionError(message);
+	}
+}